@@ -194,8 +194,7 @@ public abstract class BaseTicketAction extends Action {
           services,
           connection
               .get()
-              .issues() //
-              .filter(issue -> issue.getSummary().equals(summary)) //
+              .issuesWithSummary(summary) //
               .peek(issue -> issues.add(issue.getKey())));
     } catch (final Exception e) {
       failure.labels(connection.get().url(), connection.get().projectKey()).inc();
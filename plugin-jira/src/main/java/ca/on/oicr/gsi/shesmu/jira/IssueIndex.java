@@ -0,0 +1,71 @@
+package ca.on.oicr.gsi.shesmu.jira;
+
+import com.atlassian.jira.rest.client.api.domain.Issue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The issues in a JIRA project, indexed for the lookups done by actions and olives
+ *
+ * <p>Ticket actions need the issues with exactly their summary, so issues are grouped by summary.
+ * The keyword functions are called by olives with a small number of different keywords, so issues
+ * are split into open and closed and the matches for each keyword are found once and kept until the
+ * issues are next refreshed.
+ */
+final class IssueIndex {
+  public static final IssueIndex EMPTY =
+      new IssueIndex(Collections.emptyList(), Collections.emptySet());
+
+  private final Map<String, List<Issue>> bySummary = new HashMap<>();
+  private final List<Issue> closed = new ArrayList<>();
+  private final Map<String, List<Issue>> closedMatches = new ConcurrentHashMap<>();
+  private final List<Issue> open = new ArrayList<>();
+  private final Map<String, List<Issue>> openMatches = new ConcurrentHashMap<>();
+
+  public IssueIndex(List<Issue> issues, Set<String> closedStatuses) {
+    for (final Issue issue : issues) {
+      (closedStatuses.contains(issue.getStatus().getName()) ? closed : open).add(issue);
+      if (issue.getSummary() != null) {
+        bySummary.computeIfAbsent(issue.getSummary(), k -> new ArrayList<>()).add(issue);
+      }
+    }
+  }
+
+  /**
+   * Find the open or closed issues that contain a keyword in their summary or description
+   *
+   * @param keyword the text to search for
+   * @param open whether to search open or closed issues
+   */
+  public Stream<Issue> matching(String keyword, boolean open) {
+    return (open ? openMatches : closedMatches)
+        .computeIfAbsent(
+            keyword,
+            k ->
+                (open ? this.open : closed)
+                    .stream()
+                    .filter(
+                        issue ->
+                            issue.getSummary() != null && issue.getSummary().contains(keyword)
+                                || issue.getDescription() != null
+                                    && issue.getDescription().contains(keyword))
+                    .collect(Collectors.toList()))
+        .stream();
+  }
+
+  /**
+   * Find the issues that have exactly this summary
+   *
+   * @param summary the summary to match
+   */
+  public Stream<Issue> withSummary(String summary) {
+    return bySummary.getOrDefault(summary, Collections.emptyList()).stream();
+  }
+}
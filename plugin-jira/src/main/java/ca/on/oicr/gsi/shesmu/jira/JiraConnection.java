@@ -26,7 +26,6 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -106,24 +105,6 @@ public class JiraConnection extends JsonPluginFile<Configuration> {
     }
   }
 
-  private class IssueFilter implements Predicate<Issue> {
-    private final String keyword;
-    private final boolean open;
-
-    public IssueFilter(String keyword, boolean open) {
-      super();
-      this.keyword = keyword;
-      this.open = open;
-    }
-
-    @Override
-    public boolean test(Issue issue) {
-      return closedStatuses().anyMatch(issue.getStatus().getName()::equals) != open
-          && (issue.getSummary() != null && issue.getSummary().contains(keyword)
-              || issue.getDescription() != null && issue.getDescription().contains(keyword));
-    }
-  }
-
   static class JiraActionFilter {
     private final String assignee;
     private final ActionFilter filter;
@@ -184,6 +165,8 @@ public class JiraConnection extends JsonPluginFile<Configuration> {
   private final FilterCache filters;
   private long issueTypeId;
   private String issueTypeName;
+  private IssueIndex index = IssueIndex.EMPTY;
+  private Instant indexUpdated;
   private final IssueCache issues;
   private String passwordFile;
   private long projectId = 0;
@@ -236,7 +219,7 @@ public class JiraConnection extends JsonPluginFile<Configuration> {
   public long count_tickets_$(
       @ShesmuParameter(description = "keyword") String keyword,
       @ShesmuParameter(description = "is ticket open") boolean open) {
-    return issues().filter(new IssueFilter(keyword, open)).count();
+    return index().matching(keyword, open).count();
   }
 
   @Override
@@ -258,10 +241,48 @@ public class JiraConnection extends JsonPluginFile<Configuration> {
     issues.invalidate();
   }
 
+  /**
+   * Get the index for the cached issues, rebuilding it if the issues have been refreshed
+   *
+   * <p>Refreshing the issues can take a long time, so it is done without holding the lock; the lock
+   * is only held to check and replace the index.
+   */
+  private IssueIndex index() {
+    final Stream<Issue> current = issues.get();
+    final Instant updated = issues.lastUpdated();
+    final Instant seen;
+    synchronized (this) {
+      if (updated.equals(indexUpdated)) {
+        return index;
+      }
+      seen = indexUpdated;
+    }
+    final IssueIndex rebuilt =
+        new IssueIndex(current.collect(Collectors.toList()), new HashSet<>(closedStatuses));
+    synchronized (this) {
+      // If another thread has replaced the index or the configuration has changed in the meantime,
+      // keep that instead
+      if (Objects.equals(seen, indexUpdated)) {
+        index = rebuilt;
+        indexUpdated = updated;
+      }
+      return index;
+    }
+  }
+
   public Stream<Issue> issues() {
     return issues.get();
   }
 
+  /**
+   * Get the cached issues that have exactly this summary
+   *
+   * @param summary the summary to match
+   */
+  public Stream<Issue> issuesWithSummary(String summary) {
+    return index().withSummary(summary);
+  }
+
   public String projectKey() {
     return projectKey;
   }
@@ -273,8 +294,8 @@ public class JiraConnection extends JsonPluginFile<Configuration> {
   public Set<Tuple> query_tickets_$(
       @ShesmuParameter(description = "keyword") String keyword,
       @ShesmuParameter(description = "is ticket open") boolean open) {
-    return issues()
-        .filter(new IssueFilter(keyword, open))
+    return index()
+        .matching(keyword, open)
         .map(issue -> new Tuple(issue.getKey(), issue.getSummary()))
         .collect(Collectors.toSet());
   }
@@ -331,6 +352,9 @@ public class JiraConnection extends JsonPluginFile<Configuration> {
       user = config.getUser();
       passwordFile = config.getPasswordFile();
       closedStatuses = config.getClosedStatuses();
+      synchronized (this) {
+        indexUpdated = null;
+      }
       closeActions = config.getCloseActions();
       reopenActions = config.getReopenActions();
       searches = config.getSearches();
@@ -7,9 +7,14 @@ import java.util.Map;
 /** Bean for on-disk Loki service configuration files */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Configuration {
+  private boolean compress;
   private Map<String, String> labels = Collections.emptyMap();
   private String url;
 
+  public boolean isCompress() {
+    return compress;
+  }
+
   public Map<String, String> getLabels() {
     return labels;
   }
@@ -18,6 +23,10 @@ public class Configuration {
     return url;
   }
 
+  public void setCompress(boolean compress) {
+    this.compress = compress;
+  }
+
   public void setLabels(Map<String, String> labels) {
     this.labels = labels;
   }
@@ -1,6 +1,5 @@
 package ca.on.oicr.gsi.shesmu.loki;
 
-import ca.on.oicr.gsi.Pair;
 import ca.on.oicr.gsi.prometheus.LatencyHistogram;
 import ca.on.oicr.gsi.shesmu.plugin.Definer;
 import ca.on.oicr.gsi.shesmu.plugin.json.JsonPluginFile;
@@ -8,7 +7,10 @@ import ca.on.oicr.gsi.status.SectionRenderer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
@@ -19,26 +21,89 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 import javax.xml.stream.XMLStreamException;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 
+/**
+ * Sends log messages to Loki
+ *
+ * <p>Logging happens on whatever thread is doing work, so writing a log message only adds it to a
+ * queue. A background thread takes messages off the queue in batches and pushes them to Loki. If
+ * the queue is full, the oldest messages are dropped; if a push fails, it is retried with
+ * increasing delays while new messages continue to queue.
+ */
 public class LokiPlugin extends JsonPluginFile<Configuration> {
+  private static final class LogEntry {
+    private final Map<String, String> labels;
+    private final String message;
+    private final Instant time;
 
-  private static final CloseableHttpClient HTTP_CLIENT = HttpClients.createDefault();
+    private LogEntry(Instant time, String message, Map<String, String> labels) {
+      this.time = time;
+      this.message = message;
+      this.labels = labels;
+    }
+  }
+
+  private static final int BATCH_SIZE = 1000;
+  // Pushes happen on the one sender thread, so a stalled connection must not hold it forever
+  private static final int HTTP_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(30);
+  private static final CloseableHttpClient HTTP_CLIENT =
+      HttpClients.custom()
+          .setDefaultRequestConfig(
+              RequestConfig.custom()
+                  .setConnectTimeout(HTTP_TIMEOUT)
+                  .setConnectionRequestTimeout(HTTP_TIMEOUT)
+                  .setSocketTimeout(HTTP_TIMEOUT)
+                  .build())
+          .build();
+  private static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+  private static final int MAX_QUEUED = 10_000;
   private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final ScheduledExecutorService SENDER =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "loki-sender");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private static final Gauge batchSize =
+      Gauge.build("shesmu_loki_batch_size", "The number of log messages in the last push to Loki.")
+          .labelNames("filename")
+          .register();
+  private static final Counter dropped =
+      Counter.build(
+              "shesmu_loki_dropped",
+              "The number of log messages discarded because too many were waiting to be sent to Loki.")
+          .labelNames("filename")
+          .register();
   private static final Gauge error =
       Gauge.build(
               "shesmu_loki_push_error",
               "Whether the Loki client had a push error on its last write")
           .labelNames("filename")
           .register();
+  private static final Gauge queueDepth =
+      Gauge.build(
+              "shesmu_loki_queue_depth", "The number of log messages waiting to be sent to Loki.")
+          .labelNames("filename")
+          .register();
   private static final LatencyHistogram writeLatency =
       new LatencyHistogram(
           "shesmu_loki_write_latency",
@@ -49,9 +114,15 @@ public class LokiPlugin extends JsonPluginFile<Configuration> {
           .labelNames("filename")
           .register();
   private final Pattern INVALID_LABEL = Pattern.compile("[^a-zA-Z0-9_]");
-  private final Map<Map<String, String>, List<Pair<Instant, String>>> buffer = new HashMap<>();
-  private Optional<Configuration> configuration = Optional.empty();
+  // These are only used by the sender thread
+  private Duration backoff = Duration.ZERO;
+  private List<LogEntry> batch = new ArrayList<>();
+  private volatile Optional<Configuration> configuration = Optional.empty();
   private final Definer<LokiPlugin> definer;
+  private Instant nextAttempt = Instant.EPOCH;
+  private final Queue<LogEntry> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private ScheduledFuture<?> sender;
 
   public LokiPlugin(Path fileName, String instanceName, Definer<LokiPlugin> definer) {
     super(fileName, instanceName, MAPPER, Configuration.class);
@@ -66,106 +137,143 @@ public class LokiPlugin extends JsonPluginFile<Configuration> {
           for (final Map.Entry<String, String> entry : configuration.getLabels().entrySet()) {
             renderer.line("Label: " + entry.getKey(), entry.getValue());
           }
+          renderer.line("Queued Messages", queued.get());
         });
   }
 
-  private void flush(Instant now) {
-    configuration.ifPresent(
-        c -> {
-          int size = 0;
-          boolean flush = false;
-          for (final List<Pair<Instant, String>> list : buffer.values()) {
-            size += list.size();
-            flush =
-                list.stream()
-                    .map(Pair::first)
-                    .min(Comparator.naturalOrder())
-                    .map(x -> Duration.between(x, now).getSeconds() > 60)
-                    .orElse(false);
-            if (flush || size > 10) {
-              flush = true;
-              break;
-            }
+  /** Push the current batch to Loki and return whether it was accepted */
+  private boolean push(Configuration c) {
+    final Map<Map<String, String>, List<LogEntry>> streamEntries = new HashMap<>();
+    for (final LogEntry entry : batch) {
+      streamEntries.computeIfAbsent(entry.labels, k -> new ArrayList<>()).add(entry);
+    }
+    final ObjectNode body = MAPPER.createObjectNode();
+    final ArrayNode streams = body.putArray("streams");
+    for (final Entry<Map<String, String>, List<LogEntry>> entry : streamEntries.entrySet()) {
+      final ObjectNode stream = streams.addObject();
+      final ObjectNode labels = stream.putObject("stream");
+      for (final Entry<String, String> label : entry.getKey().entrySet()) {
+        labels.put(INVALID_LABEL.matcher(label.getKey()).replaceAll("_"), label.getValue());
+      }
+      for (final Entry<String, String> label : c.getLabels().entrySet()) {
+        labels.put(INVALID_LABEL.matcher(label.getKey()).replaceAll("_"), label.getValue());
+      }
+      final ArrayNode values = stream.putArray("values");
+      entry.getValue().sort(Comparator.comparing(e -> e.time));
+      for (final LogEntry value : entry.getValue()) {
+        final ArrayNode record = values.addArray();
+        record.add(String.format("%d%09d", value.time.getEpochSecond(), value.time.getNano()));
+        record.add(value.message.replace('\n', ' '));
+      }
+    }
+    final HttpPost request = new HttpPost(c.getUrl());
+    try {
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      try (final OutputStream compressed = c.isCompress() ? new GZIPOutputStream(output) : output) {
+        MAPPER.writeValue(compressed, body);
+      }
+      // This doesn't use the built-in constant for JSON because that one includes a charset
+      // and Loki then thinks the request is a protobuf
+      request.setEntity(
+          new ByteArrayEntity(output.toByteArray(), ContentType.create("application/json")));
+      if (c.isCompress()) {
+        request.addHeader("Content-Encoding", "gzip");
+      }
+    } catch (final Exception e) {
+      e.printStackTrace();
+      return false;
+    }
+    batchSize.labels(fileName().toString()).set(batch.size());
+    writeTime.labels(fileName().toString()).setToCurrentTime();
+    try (final AutoCloseable timer = writeLatency.start(fileName().toString());
+        final CloseableHttpResponse response = HTTP_CLIENT.execute(request)) {
+      if (response.getStatusLine().getStatusCode() / 100 == 2) {
+        return true;
+      }
+      try (final Scanner s = new Scanner(response.getEntity().getContent())) {
+        s.useDelimiter("\\A");
+        if (s.hasNext()) {
+          final String message = s.next();
+          if (message.contains("ignored")) {
+            // Loki complains if we send duplicate messages, so treat that like success
+            return true;
           }
-          if (flush) {
-            final ObjectNode body = MAPPER.createObjectNode();
-            final ArrayNode streams = body.putArray("streams");
-            for (final Entry<Map<String, String>, List<Pair<Instant, String>>> entry :
-                buffer.entrySet()) {
-              final ObjectNode stream = streams.addObject();
-              final ObjectNode labels = stream.putObject("stream");
-              for (final Entry<String, String> label : entry.getKey().entrySet()) {
-                labels.put(INVALID_LABEL.matcher(label.getKey()).replaceAll("_"), label.getValue());
-              }
-              for (final Entry<String, String> label : c.getLabels().entrySet()) {
-                labels.put(INVALID_LABEL.matcher(label.getKey()).replaceAll("_"), label.getValue());
-              }
-              final ArrayNode values = stream.putArray("values");
-              entry.getValue().sort(Comparator.comparing(Pair::first));
-              for (final Pair<Instant, String> value : entry.getValue()) {
-                final ArrayNode record = values.addArray();
-                record.add(
-                    String.format(
-                        "%d%09d", value.first().getEpochSecond(), value.first().getNano()));
-                record.add(value.second().replace('\n', ' '));
-              }
-            }
-            final HttpPost request = new HttpPost(c.getUrl());
-            try {
-              // This doesn't use the built-in constant for JSON because that one includes a charset
-              // and Loki then thinks the request is a protobuf
-              request.setEntity(
-                  new StringEntity(
-                      MAPPER.writeValueAsString(body), ContentType.create("application/json")));
-            } catch (final Exception e) {
-              e.printStackTrace();
-              error.labels(fileName().toString()).set(1);
-            }
-            writeTime.labels(fileName().toString()).setToCurrentTime();
-            try (final AutoCloseable timer = writeLatency.start(fileName().toString());
-                final CloseableHttpResponse response = HTTP_CLIENT.execute(request)) {
-              final boolean success = response.getStatusLine().getStatusCode() / 100 == 2;
-              if (success) {
-                buffer.clear();
-                error.labels(fileName().toString()).set(0);
-              } else {
-                try (final Scanner s = new Scanner(response.getEntity().getContent())) {
-                  s.useDelimiter("\\A");
-                  if (s.hasNext()) {
-                    final String message = s.next();
-                    if (message.contains("ignored")) {
-                      buffer.clear();
-                      // Loki complains if we send duplicate messages, so treat that like success
-                      error.labels(fileName().toString()).set(0);
-                      return;
-                    }
-                    System.err.println(message);
-                  }
-                }
-                error.labels(fileName().toString()).set(1);
-              }
-            } catch (final Exception e) {
-              e.printStackTrace();
-              error.labels(fileName().toString()).set(1);
-            }
-          }
-        });
+          System.err.println(message);
+        }
+      }
+    } catch (final Exception e) {
+      e.printStackTrace();
+    }
+    return false;
+  }
+
+  /**
+   * Send everything in the queue, in batches; this must only be called on the sender thread
+   *
+   * @param ignoreBackoff send even if the last push failed recently
+   */
+  private void send(boolean ignoreBackoff) {
+    final Optional<Configuration> current = configuration;
+    if (!current.isPresent() || !ignoreBackoff && Instant.now().isBefore(nextAttempt)) {
+      return;
+    }
+    while (true) {
+      while (batch.size() < BATCH_SIZE) {
+        final LogEntry entry = queue.poll();
+        if (entry == null) {
+          break;
+        }
+        queued.decrementAndGet();
+        batch.add(entry);
+      }
+      queueDepth.labels(fileName().toString()).set(queued.get());
+      if (batch.isEmpty()) {
+        return;
+      }
+      if (push(current.get())) {
+        batch = new ArrayList<>();
+        backoff = Duration.ZERO;
+        error.labels(fileName().toString()).set(0);
+      } else {
+        // Keep this batch and try it again later; new messages will wait in the queue
+        final Duration doubled = backoff.isZero() ? Duration.ofSeconds(1) : backoff.multipliedBy(2);
+        backoff = doubled.compareTo(MAX_BACKOFF) < 0 ? doubled : MAX_BACKOFF;
+        nextAttempt = Instant.now().plus(backoff);
+        error.labels(fileName().toString()).set(1);
+        return;
+      }
+    }
+  }
+
+  @Override
+  public synchronized void start() {
+    sender = SENDER.scheduleWithFixedDelay(() -> send(false), 1, 1, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (sender != null) {
+      sender.cancel(false);
+      sender = null;
+    }
+    // Make one last attempt to send anything still waiting, even if Loki has been failing, since
+    // there won't be another chance
+    SENDER.execute(() -> send(true));
   }
 
   @Override
-  protected synchronized Optional<Integer> update(Configuration configuration) {
-    // Flush logs to the old configuration if it's about to change; if there's a backlog, it will
-    // get flushed in a minute.
-    flush(Instant.now());
+  protected Optional<Integer> update(Configuration configuration) {
     this.configuration = Optional.of(configuration);
-    // Keep waking us up to flush logs
-    return Optional.of(1);
+    return Optional.empty();
   }
 
   @Override
-  public synchronized void writeLog(String message, Map<String, String> attributes) {
-    final Instant now = Instant.now();
-    buffer.computeIfAbsent(attributes, k -> new ArrayList<>()).add(new Pair<>(now, message));
-    flush(now);
+  public void writeLog(String message, Map<String, String> attributes) {
+    queue.add(new LogEntry(Instant.now(), message, attributes));
+    // If the queue is full, throw away the oldest message to make room
+    if (queued.incrementAndGet() > MAX_QUEUED && queue.poll() != null) {
+      queued.decrementAndGet();
+      dropped.labels(fileName().toString()).inc();
+    }
   }
 }
@@ -2,7 +2,9 @@ package ca.on.oicr.gsi.shesmu.mongo;
 
 import ca.on.oicr.gsi.shesmu.plugin.Definer;
 import ca.on.oicr.gsi.shesmu.plugin.Tuple;
+import ca.on.oicr.gsi.shesmu.plugin.cache.InitialCachePopulationException;
 import ca.on.oicr.gsi.shesmu.plugin.cache.KeyValueCache;
+import ca.on.oicr.gsi.shesmu.plugin.cache.RefreshAheadRecord;
 import ca.on.oicr.gsi.shesmu.plugin.cache.SimpleRecord;
 import ca.on.oicr.gsi.shesmu.plugin.functions.FunctionParameter;
 import ca.on.oicr.gsi.shesmu.plugin.functions.VariadicFunction;
@@ -15,6 +17,9 @@ import java.nio.file.Path;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MongoServer extends JsonPluginFile<Configuration> {
 
@@ -48,23 +53,77 @@ public class MongoServer extends JsonPluginFile<Configuration> {
           function.getSelector().type(function.getResultType().type()),
           new VariadicFunction() {
             private final Definer<MongoServer> definer = MongoServer.this.definer;
+            // Keys that have been used are refreshed in the background when they expire, so olives
+            // only wait for Mongo the first time they use a key
             private final KeyValueCache<Tuple, Optional<Object>, Optional<Object>> cache =
                 new KeyValueCache<Tuple, Optional<Object>, Optional<Object>>(
                     String.format("mongo %s %s", MongoServer.this.fileName(), entry.getKey()),
                     function.getTtl(),
-                    SimpleRecord::new) {
+                    RefreshAheadRecord.wrap(SimpleRecord::new)) {
                   @Override
                   protected Optional<Object> fetch(Tuple key, Instant lastUpdated) {
                     return Optional.of(function.apply(definer.get().connection.get(), key));
                   }
                 };
 
+            // Olives running at the same time often look up the same key; only one of them needs
+            // to query Mongo for a key's first load and the others can wait for its answer
+            private final Map<Tuple, CompletableFuture<Optional<Object>>> inFlight =
+                new ConcurrentHashMap<>();
+
             @Override
             public Object apply(Object... arguments) {
-              return cache
-                  .get(new Tuple(arguments))
-                  .orElseThrow(
-                      () -> new IllegalStateException("Failed to get response for Mongo request"));
+              final Tuple key = new Tuple(arguments);
+              final Optional<Object> result = isLoaded(key) ? cache.get(key) : load(key);
+              return result.orElseThrow(
+                  () -> new IllegalStateException("Failed to get response for Mongo request"));
+            }
+
+            /**
+             * Check if a key has a value already
+             *
+             * <p>Once it has, the cache returns it to every caller while it is refreshed, so only
+             * the first load needs to be shared.
+             */
+            private boolean isLoaded(Tuple key) {
+              try {
+                return cache.getStale(key).isPresent();
+              } catch (InitialCachePopulationException e) {
+                return false;
+              }
+            }
+
+            private Optional<Object> load(Tuple key) {
+              final CompletableFuture<Optional<Object>> future = new CompletableFuture<>();
+              final CompletableFuture<Optional<Object>> existing =
+                  inFlight.putIfAbsent(key, future);
+              final Optional<Object> result;
+              if (existing == null) {
+                try {
+                  result = cache.get(key);
+                  future.complete(result);
+                } catch (Throwable e) {
+                  // Complete the future on any failure, or anyone waiting on it will wait forever
+                  future.completeExceptionally(e);
+                  throw e;
+                } finally {
+                  inFlight.remove(key, future);
+                }
+              } else {
+                try {
+                  result = existing.join();
+                } catch (CompletionException e) {
+                  // Rethrow the original exception so callers see the same failure either way
+                  if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                  }
+                  if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                  }
+                  throw e;
+                }
+              }
+              return result;
             }
           },
           function
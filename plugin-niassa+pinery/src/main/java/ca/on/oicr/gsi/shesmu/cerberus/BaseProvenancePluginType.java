@@ -8,6 +8,7 @@ import ca.on.oicr.gsi.shesmu.plugin.Definer;
 import ca.on.oicr.gsi.shesmu.plugin.PluginFile;
 import ca.on.oicr.gsi.shesmu.plugin.PluginFileType;
 import ca.on.oicr.gsi.shesmu.plugin.Tuple;
+import ca.on.oicr.gsi.shesmu.plugin.cache.RefreshAheadRecord;
 import ca.on.oicr.gsi.shesmu.plugin.cache.ReplacingRecord;
 import ca.on.oicr.gsi.shesmu.plugin.cache.ValueCache;
 import ca.on.oicr.gsi.shesmu.plugin.input.ShesmuInputSource;
@@ -36,7 +37,8 @@ public abstract class BaseProvenancePluginType<C extends AutoCloseable>
             Stream<CerberusFileProvenanceValue>, Stream<CerberusFileProvenanceValue>> {
 
       public ItemCache() {
-        super(name + " " + fileName().toString(), 60, ReplacingRecord::new);
+        super(
+            name + " " + fileName().toString(), 60, RefreshAheadRecord.wrap(ReplacingRecord::new));
       }
 
       @Override
@@ -296,10 +296,20 @@ public class AnalysisState implements Comparable<AnalysisState> {
     return files;
   }
 
+  /** The SWIDs of the files this workflow run used as input */
+  public Set<Integer> inputFiles() {
+    return fileSWIDSToRun;
+  }
+
   public Instant lastModified() {
     return lastModified;
   }
 
+  /** The LIMS keys this workflow run was associated with */
+  public Stream<? extends LimsKey> limsKeys() {
+    return limsKeys.stream().map(Pair::first);
+  }
+
   public boolean skipped() {
     return skipped;
   }
@@ -0,0 +1,79 @@
+package ca.on.oicr.gsi.shesmu.niassa;
+
+import ca.on.oicr.gsi.Pair;
+import ca.on.oicr.gsi.provenance.model.LimsKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The workflow runs for a workflow, indexed by the LIMS keys and input files they were run on
+ *
+ * <p>A workflow run can only be anything other than {@link AnalysisComparison#DIFFERENT} from an
+ * action if the run's input files include all of the action's input files or, if the action has no
+ * input files, if the run shares at least one LIMS provider and ID with the action. This finds the
+ * runs that could match, so an action does not have to be compared with every run of the workflow.
+ */
+final class AnalysisStateIndex {
+  public static final AnalysisStateIndex EMPTY = new AnalysisStateIndex(Collections.emptyList());
+
+  private final List<AnalysisState> all;
+  private final Map<Integer, List<AnalysisState>> byInputFile = new HashMap<>();
+  private final Map<Pair<String, String>, List<AnalysisState>> byLimsId = new HashMap<>();
+
+  public AnalysisStateIndex(List<AnalysisState> all) {
+    this.all = all;
+    for (final AnalysisState state : all) {
+      for (final Integer inputFile : state.inputFiles()) {
+        byInputFile.computeIfAbsent(inputFile, k -> new ArrayList<>()).add(state);
+      }
+      state
+          .limsKeys()
+          .map(AnalysisStateIndex::limsId)
+          .distinct()
+          .forEach(id -> byLimsId.computeIfAbsent(id, k -> new ArrayList<>()).add(state));
+    }
+  }
+
+  private static Pair<String, String> limsId(LimsKey key) {
+    return new Pair<>(key.getProvider(), key.getId());
+  }
+
+  /** All the workflow runs for this workflow */
+  public Stream<AnalysisState> all() {
+    return all.stream();
+  }
+
+  /**
+   * Find the workflow runs that might match an action
+   *
+   * @param inputFiles the input file SWIDs the action would run on
+   * @param limsKeys the LIMS keys the action would run on
+   */
+  public Stream<AnalysisState> candidates(
+      Set<Integer> inputFiles, List<? extends LimsKey> limsKeys) {
+    if (!inputFiles.isEmpty()) {
+      // Every matching run must have used all the input files, so any one of them will find all
+      // the candidates; use whichever has been used least
+      return inputFiles
+          .stream()
+          .map(file -> byInputFile.getOrDefault(file, Collections.emptyList()))
+          .min((a, b) -> Integer.compare(a.size(), b.size()))
+          .orElse(Collections.emptyList())
+          .stream();
+    }
+    return limsKeys
+        .stream()
+        .map(AnalysisStateIndex::limsId)
+        .distinct()
+        .flatMap(id -> byLimsId.getOrDefault(id, Collections.emptyList()).stream())
+        .collect(Collectors.toCollection(LinkedHashSet::new))
+        .stream();
+  }
+}
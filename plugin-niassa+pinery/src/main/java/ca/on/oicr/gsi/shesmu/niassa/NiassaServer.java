@@ -44,22 +44,22 @@ import org.apache.http.impl.client.HttpClients;
 
 class NiassaServer extends JsonPluginFile<Configuration> {
   private class AnalysisCache
-      extends KeyValueCache<Long, Stream<AnalysisState>, Stream<AnalysisState>> {
+      extends KeyValueCache<Long, Optional<AnalysisStateIndex>, Optional<AnalysisStateIndex>> {
     public AnalysisCache(Path fileName) {
       super(
           "niassa-analysis " + fileName.toString(),
           120,
-          TimeoutRecord.limit(45, ReplacingRecord::new));
+          RefreshAheadRecord.wrap(TimeoutRecord.limit(45, SimpleRecord::new)));
     }
 
     @Override
-    protected Stream<AnalysisState> fetch(Long key, Instant lastUpdated) throws IOException {
+    protected Optional<AnalysisStateIndex> fetch(Long key, Instant lastUpdated) throws IOException {
       final MetadataWS metadata = metadataConstructor.get();
       if (metadata.getWorkflow(key.intValue()) == null) {
         definer.log(
             String.format("No such workflow %d fetching matches!", key), Collections.emptyMap());
         metadata.clean_up();
-        return Stream.empty();
+        return Optional.of(AnalysisStateIndex.EMPTY);
       }
       slowFetch.labels(key.toString()).set(0);
       final Runnable incrementSlowFetch = slowFetch.labels(key.toString())::inc;
@@ -68,47 +68,50 @@ class NiassaServer extends JsonPluginFile<Configuration> {
           new EnumMap<>(FileProvenanceFilter.class);
       filters.put(FileProvenanceFilter.workflow, Collections.singleton(Long.toString(key)));
       final AtomicLong badStatusCount = new AtomicLong();
-      return metadata
-          .streamAnalysisProvenance(filters)
-          .filter(
-              ap -> {
-                if (ap.getWorkflowRunStatus() == null) {
-                  badStatusCount.incrementAndGet();
-                  return false;
-                }
-                return true;
-              })
-          .onClose(
-              () -> {
-                badStatus.labels(url, Long.toString(key)).set(badStatusCount.get());
-                metadata.clean_up();
-
-                final Set<Pair<String, String>> stale =
-                    staleKeys.computeIfAbsent(key, k -> new HashSet<>());
-                synchronized (stale) {
-                  stale.forEach(
-                      p ->
-                          definer.log(
-                              String.format(
-                                  "Purging stale lock on %s/%s for workflow %d",
-                                  p.first(), p.second(), key),
-                              Collections.emptyMap()));
-                  stale.clear();
-                }
-              })
-          .filter(ap -> ap.getWorkflowId() != null)
-          .collect(Collectors.groupingBy(AnalysisProvenance::getWorkflowRunId))
-          .entrySet()
-          .stream()
-          .map(
-              e ->
-                  new AnalysisState(
-                      e.getKey(),
-                      () -> metadata.getWorkflowRunWithIuses(e.getKey()),
-                      iusAccession ->
-                          limsKeyCache.computeIfAbsent(iusAccession, metadata::getLimsKeyFrom),
-                      e.getValue(),
-                      incrementSlowFetch));
+      try (final Stream<AnalysisState> states =
+          metadata
+              .streamAnalysisProvenance(filters)
+              .filter(
+                  ap -> {
+                    if (ap.getWorkflowRunStatus() == null) {
+                      badStatusCount.incrementAndGet();
+                      return false;
+                    }
+                    return true;
+                  })
+              .onClose(
+                  () -> {
+                    badStatus.labels(url, Long.toString(key)).set(badStatusCount.get());
+                    metadata.clean_up();
+
+                    final Set<Pair<String, String>> stale =
+                        staleKeys.computeIfAbsent(key, k -> new HashSet<>());
+                    synchronized (stale) {
+                      stale.forEach(
+                          p ->
+                              definer.log(
+                                  String.format(
+                                      "Purging stale lock on %s/%s for workflow %d",
+                                      p.first(), p.second(), key),
+                                  Collections.emptyMap()));
+                      stale.clear();
+                    }
+                  })
+              .filter(ap -> ap.getWorkflowId() != null)
+              .collect(Collectors.groupingBy(AnalysisProvenance::getWorkflowRunId))
+              .entrySet()
+              .stream()
+              .map(
+                  e ->
+                      new AnalysisState(
+                          e.getKey(),
+                          () -> metadata.getWorkflowRunWithIuses(e.getKey()),
+                          iusAccession ->
+                              limsKeyCache.computeIfAbsent(iusAccession, metadata::getLimsKeyFrom),
+                          e.getValue(),
+                          incrementSlowFetch))) {
+        return Optional.of(new AnalysisStateIndex(states.collect(Collectors.toList())));
+      }
     }
   }
 
@@ -119,7 +122,7 @@ class NiassaServer extends JsonPluginFile<Configuration> {
       super(
           "niassa-data-analysis " + fileName.toString(),
           20,
-          TimeoutRecord.limit(45, ReplacingRecord::new));
+          RefreshAheadRecord.wrap(TimeoutRecord.limit(45, ReplacingRecord::new)));
     }
 
     @Override
@@ -327,7 +330,7 @@ class NiassaServer extends JsonPluginFile<Configuration> {
       super(
           "niassa-skipped " + fileName.toString(),
           20,
-          TimeoutRecord.limit(45, ReplacingRecord::new));
+          RefreshAheadRecord.wrap(TimeoutRecord.limit(45, ReplacingRecord::new)));
     }
 
     @Override
@@ -521,7 +524,8 @@ class NiassaServer extends JsonPluginFile<Configuration> {
             Objects.hash(workflowAccession, annotations), k -> new HashSet<>()));
   }
 
-  public KeyValueCache<Long, Stream<AnalysisState>, Stream<AnalysisState>> analysisCache() {
+  public KeyValueCache<Long, Optional<AnalysisStateIndex>, Optional<AnalysisStateIndex>>
+      analysisCache() {
     return analysisCache;
   }
 
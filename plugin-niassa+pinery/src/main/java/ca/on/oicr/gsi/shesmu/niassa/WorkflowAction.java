@@ -447,6 +447,8 @@ public final class WorkflowAction extends Action {
                               .get()
                               .analysisCache()
                               .get(accession)
+                              .map(index -> index.candidates(inputFileSWIDs, limsKeys))
+                              .orElseGet(Stream::empty)
                               .map(
                                   as ->
                                       as.compare(
@@ -881,8 +883,12 @@ public final class WorkflowAction extends Action {
                             .get()
                             .analysisCache()
                             .getStale(workflowAccession)
-                            .filter(s -> s.workflowRunAccession() == runAccession)
-                            .findAny()
+                            .flatMap(
+                                index ->
+                                    index
+                                        .all()
+                                        .filter(s -> s.workflowRunAccession() == runAccession)
+                                        .findAny())
                             .map(AnalysisState::files)
                             .orElse(Collections.emptyList()));
         for (final FileInfo file : files) {
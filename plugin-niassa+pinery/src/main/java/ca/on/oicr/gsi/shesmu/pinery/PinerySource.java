@@ -6,6 +6,7 @@ import ca.on.oicr.gsi.shesmu.cerberus.IUSUtils;
 import ca.on.oicr.gsi.shesmu.plugin.Tuple;
 import ca.on.oicr.gsi.shesmu.plugin.Utils;
 import ca.on.oicr.gsi.shesmu.plugin.cache.MergingRecord;
+import ca.on.oicr.gsi.shesmu.plugin.cache.RefreshAheadRecord;
 import ca.on.oicr.gsi.shesmu.plugin.cache.ReplacingRecord;
 import ca.on.oicr.gsi.shesmu.plugin.cache.SimpleRecord;
 import ca.on.oicr.gsi.shesmu.plugin.cache.ValueCache;
@@ -34,7 +35,7 @@ import javax.xml.stream.XMLStreamException;
 public class PinerySource extends JsonPluginFile<PineryConfiguration> {
   private final class ItemCache extends ValueCache<Stream<PineryIUSValue>, Stream<PineryIUSValue>> {
     private ItemCache(Path fileName) {
-      super("pinery " + fileName.toString(), 30, ReplacingRecord::new);
+      super("pinery " + fileName.toString(), 30, RefreshAheadRecord.wrap(ReplacingRecord::new));
     }
 
     @Override
@@ -0,0 +1,234 @@
+package ca.on.oicr.gsi.shesmu.niassa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import ca.on.oicr.gsi.provenance.model.AnalysisProvenance;
+import ca.on.oicr.gsi.provenance.model.IusLimsKey;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import org.junit.Test;
+
+public class AnalysisStateIndexTest {
+  private static final Instant MODIFIED = Instant.parse("2020-01-01T00:00:00Z");
+  private static final long WORKFLOW = 42;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Object adapt(Class<?> type, Object value) {
+    if (value instanceof Number) {
+      if (type == Integer.class || type == int.class) {
+        return ((Number) value).intValue();
+      }
+      if (type == Long.class || type == long.class) {
+        return ((Number) value).longValue();
+      }
+    }
+    if (value instanceof String && type.isEnum()) {
+      return Enum.valueOf((Class) type, (String) value);
+    }
+    if (value instanceof ZonedDateTime && type == Date.class) {
+      return Date.from(((ZonedDateTime) value).toInstant());
+    }
+    if (value instanceof Collection
+        && !type.isInstance(value)
+        && type.isAssignableFrom(LinkedHashSet.class)) {
+      return new LinkedHashSet<>((Collection<?>) value);
+    }
+    return value;
+  }
+
+  /** Create a provenance record that answers only the getters listed */
+  private static <T> T fake(Class<T> type, Map<String, Object> values) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "equals":
+                  return proxy == args[0];
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "toString":
+                  return type.getSimpleName() + values;
+                default:
+                  return adapt(method.getReturnType(), values.get(method.getName()));
+              }
+            }));
+  }
+
+  private static SimpleLimsKey key(String id, String version) {
+    return new SimpleLimsKey(id, "pinery", MODIFIED, version);
+  }
+
+  private static List<SimpleLimsKey> keys(SimpleLimsKey... keys) {
+    return Arrays.stream(keys)
+        .sorted(WorkflowAction.LIMS_KEY_COMPARATOR)
+        .distinct()
+        .collect(Collectors.toList());
+  }
+
+  private static AnalysisState run(
+      int accession, Set<Integer> inputFiles, List<SimpleLimsKey> limsKeys) {
+    final List<IusLimsKey> iusLimsKeys = new ArrayList<>();
+    for (int i = 0; i < limsKeys.size(); i++) {
+      final Map<String, Object> ius = new HashMap<>();
+      ius.put("getLimsKey", limsKeys.get(i));
+      ius.put("getIusSWID", accession * 100 + i);
+      iusLimsKeys.add(fake(IusLimsKey.class, ius));
+    }
+    final Map<String, Object> provenance = new HashMap<>();
+    provenance.put("getWorkflowRunInputFileIds", new TreeSet<>(inputFiles));
+    provenance.put("getWorkflowRunStatus", "completed");
+    provenance.put("getSkip", false);
+    provenance.put("getFileAttributes", new TreeMap<>());
+    provenance.put("getIusAttributes", new TreeMap<>());
+    provenance.put("getWorkflowRunAttributes", new TreeMap<>());
+    provenance.put("getWorkflowAttributes", new TreeMap<>());
+    provenance.put("getIusLimsKeys", iusLimsKeys);
+    provenance.put("getWorkflowId", WORKFLOW);
+    provenance.put("getLastModified", ZonedDateTime.ofInstant(MODIFIED, ZoneId.of("Z")));
+    return new AnalysisState(
+        accession,
+        () -> null,
+        i -> null,
+        Collections.singletonList(fake(AnalysisProvenance.class, provenance)),
+        () -> {});
+  }
+
+  private static Set<Integer> files(Integer... files) {
+    return new TreeSet<>(Arrays.asList(files));
+  }
+
+  private static AnalysisComparison compare(
+      AnalysisState state,
+      FileMatchingPolicy policy,
+      Set<Integer> inputFiles,
+      List<SimpleLimsKey> limsKeys) {
+    return state
+        .compare(
+            LongStream.of(WORKFLOW),
+            "1",
+            policy,
+            inputFiles,
+            limsKeys,
+            Collections.emptyMap(),
+            Collections.emptyMap())
+        .comparison();
+  }
+
+  /** Check that the index finds every run that comparing against all of them would find */
+  private static void check(
+      AnalysisStateIndex index,
+      FileMatchingPolicy policy,
+      Set<Integer> inputFiles,
+      List<SimpleLimsKey> limsKeys) {
+    final List<AnalysisState> candidates =
+        index.candidates(inputFiles, limsKeys).collect(Collectors.toList());
+    assertEquals(
+        "Candidates should not repeat", new LinkedHashSet<>(candidates).size(), candidates.size());
+    final Set<AnalysisState> expected =
+        index
+            .all()
+            .filter(
+                state ->
+                    compare(state, policy, inputFiles, limsKeys) != AnalysisComparison.DIFFERENT)
+            .collect(Collectors.toSet());
+    assertTrue(
+        String.format("Missing candidates for %s %s %s", policy, inputFiles, limsKeys.toString()),
+        candidates.containsAll(expected));
+  }
+
+  @Test
+  public void testRandom() {
+    final Random random = new Random(1234);
+    final List<String> ids = Arrays.asList("a", "b", "c", "d", "e");
+    final List<AnalysisState> runs = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      runs.add(run(i, randomFiles(random), randomKeys(random, ids)));
+    }
+    final AnalysisStateIndex index = new AnalysisStateIndex(runs);
+    for (int i = 0; i < 500; i++) {
+      final Set<Integer> inputFiles = randomFiles(random);
+      final List<SimpleLimsKey> limsKeys = randomKeys(random, ids);
+      for (final FileMatchingPolicy policy : FileMatchingPolicy.values()) {
+        check(index, policy, inputFiles, limsKeys);
+      }
+    }
+  }
+
+  private static Set<Integer> randomFiles(Random random) {
+    // Some have no input files, like a root workflow
+    return IntStream.rangeClosed(1, 6)
+        .filter(file -> random.nextInt(4) == 0)
+        .boxed()
+        .collect(Collectors.toCollection(TreeSet::new));
+  }
+
+  private static List<SimpleLimsKey> randomKeys(Random random, List<String> ids) {
+    // Each ID appears at most once, with either version, so some keys are stale
+    return keys(
+        ids.stream()
+            .filter(id -> random.nextInt(3) == 0)
+            .map(id -> key(id, random.nextBoolean() ? "1" : "2"))
+            .toArray(SimpleLimsKey[]::new));
+  }
+
+  @Test
+  public void testStaleNoInputFiles() {
+    final AnalysisState stale = run(1, files(), keys(key("a", "1")));
+    final AnalysisStateIndex index =
+        new AnalysisStateIndex(Arrays.asList(stale, run(2, files(), keys(key("b", "1")))));
+    final List<SimpleLimsKey> limsKeys = keys(key("a", "2"));
+    for (final FileMatchingPolicy policy : FileMatchingPolicy.values()) {
+      assertNotEquals(AnalysisComparison.DIFFERENT, compare(stale, policy, files(), limsKeys));
+      assertEquals(
+          Collections.singletonList(stale),
+          index.candidates(files(), limsKeys).collect(Collectors.toList()));
+      check(index, policy, files(), limsKeys);
+    }
+  }
+
+  @Test
+  public void testSuperset() {
+    final AnalysisState exact = run(1, files(1, 2), keys(key("a", "1")));
+    final AnalysisState superset = run(2, files(1, 2, 3), keys(key("a", "1")));
+    final AnalysisState other = run(3, files(3), keys(key("a", "1")));
+    final AnalysisStateIndex index = new AnalysisStateIndex(Arrays.asList(exact, superset, other));
+    final List<SimpleLimsKey> limsKeys = keys(key("a", "1"));
+    assertEquals(
+        AnalysisComparison.DIFFERENT,
+        compare(superset, FileMatchingPolicy.EXACT, files(1, 2), limsKeys));
+    assertEquals(
+        AnalysisComparison.EXACT,
+        compare(superset, FileMatchingPolicy.SUPERSET, files(1, 2), limsKeys));
+    assertEquals(
+        new TreeSet<>(Arrays.asList(1, 2)),
+        index
+            .candidates(files(1, 2), limsKeys)
+            .map(AnalysisState::workflowRunAccession)
+            .collect(Collectors.toCollection(TreeSet::new)));
+    for (final FileMatchingPolicy policy : FileMatchingPolicy.values()) {
+      check(index, policy, files(1, 2), limsKeys);
+    }
+  }
+}
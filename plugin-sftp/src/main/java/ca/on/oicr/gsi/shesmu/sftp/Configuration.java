@@ -10,6 +10,7 @@ public class Configuration {
   private Map<String, FunctionConfig> functions = Collections.emptyMap();
   private String host;
   private List<JsonDataSource> jsonSources = Collections.emptyList();
+  private int maxConnections = 8;
   private int port;
   private Map<String, RefillerConfig> refillers = Collections.emptyMap();
   private String user;
@@ -34,6 +35,10 @@ public class Configuration {
     return jsonSources;
   }
 
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
   public int getPort() {
     return port;
   }
@@ -66,6 +71,10 @@ public class Configuration {
     this.jsonSources = jsonSources;
   }
 
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
   public void setPort(int port) {
     this.port = port;
   }
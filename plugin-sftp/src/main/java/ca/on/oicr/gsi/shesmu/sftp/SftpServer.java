@@ -7,6 +7,7 @@ import ca.on.oicr.gsi.shesmu.plugin.Tuple;
 import ca.on.oicr.gsi.shesmu.plugin.action.ActionState;
 import ca.on.oicr.gsi.shesmu.plugin.action.ShesmuAction;
 import ca.on.oicr.gsi.shesmu.plugin.cache.*;
+import ca.on.oicr.gsi.shesmu.plugin.cache.Record;
 import ca.on.oicr.gsi.shesmu.plugin.functions.FunctionParameter;
 import ca.on.oicr.gsi.shesmu.plugin.functions.ShesmuMethod;
 import ca.on.oicr.gsi.shesmu.plugin.functions.ShesmuParameter;
@@ -28,10 +29,13 @@ import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
 import java.io.*;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -42,44 +46,151 @@ import net.schmizz.sshj.common.Message;
 import net.schmizz.sshj.common.SSHPacket;
 import net.schmizz.sshj.connection.channel.direct.Session;
 import net.schmizz.sshj.sftp.*;
-import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
 
 public class SftpServer extends JsonPluginFile<Configuration> {
 
   private class FileAttributeCache
       extends KeyValueCache<Path, Optional<FileAttributes>, Optional<FileAttributes>> {
+    private volatile Instant nextPrefetch = Instant.EPOCH;
+    private final Map<Path, Pair<Instant, CompletableFuture<FileAttributes>>> prefetched =
+        new ConcurrentHashMap<>();
+
     public FileAttributeCache(Path fileName) {
-      super("sftp " + fileName.toString(), 10, SimpleRecord::new);
+      super("sftp " + fileName.toString(), 10, ReadTrackingRecord::new);
     }
 
     @Override
-    protected Optional<FileAttributes> fetch(Path fileName, Instant lastUpdated)
-        throws IOException {
-      final Configuration config = configuration.orElse(null);
-      if (config == null) return Optional.empty();
-
-      try (final SSHClient client = new SSHClient()) {
-        client.addHostKeyVerifier(new PromiscuousVerifier());
-        client.connect(config.getHost(), config.getPort());
-        client.authPublickey(config.getUser());
-        final SFTPClient sftp = client.newSFTPClient();
-        if (sftp == null) return Optional.empty();
-        try {
-          final FileAttributes attributes = sftp.statExistence(fileName.toString());
-
-          return Optional.of(attributes == null ? NXFILE : attributes);
-        } catch (SFTPException e) {
-          if (e.getStatusCode() == Response.StatusCode.PERMISSION_DENIED) {
-            return Optional.empty();
-          }
-          throw e;
+    protected Optional<FileAttributes> fetch(Path fileName, Instant lastUpdated) throws Exception {
+      if (connections == null) return Optional.empty();
+
+      final Instant now = Instant.now();
+      final Pair<Instant, CompletableFuture<FileAttributes>> ahead = prefetched.remove(fileName);
+      final CompletableFuture<FileAttributes> future;
+      if (ahead != null && Duration.between(ahead.first(), now).compareTo(PREFETCH_WINDOW) < 0) {
+        future = ahead.second();
+      } else {
+        future = stats.statAsync(fileName.toString());
+        prefetch(fileName, now);
+      }
+      try {
+        final FileAttributes attributes = StatBatcher.await(future);
+
+        return Optional.of(attributes == null ? NXFILE : attributes);
+      } catch (SFTPException e) {
+        if (e.getStatusCode() == Response.StatusCode.PERMISSION_DENIED) {
+          return Optional.empty();
         }
+        throw e;
+      }
+    }
+
+    @Override
+    public void invalidateAll() {
+      prefetched.clear();
+      super.invalidateAll();
+    }
+
+    /**
+     * Queue lookups for the paths that were checked around the same time as this one
+     *
+     * <p>Olives check one path at a time and wait for the answer, so their lookups would be sent to
+     * the server one at a time. Paths checked together in the last round expire together, so when
+     * one expires, the others that are about to expire are looked up in the same batch and held
+     * until they are needed. Only paths that have been read since they were last fetched are
+     * included, so paths the olives no longer check are not looked up until they are evicted.
+     */
+    private void prefetch(Path current, Instant now) {
+      if (now.isBefore(nextPrefetch)) {
+        return;
       }
+      nextPrefetch = now.plus(PREFETCH_WINDOW.dividedBy(2));
+      prefetched
+          .values()
+          .removeIf(ahead -> Duration.between(ahead.first(), now).compareTo(PREFETCH_WINDOW) >= 0);
+      final Instant due = now.minus(Duration.ofMinutes(ttl())).plus(PREFETCH_WINDOW);
+      forEach(
+          entry -> {
+            if (!entry.getKey().equals(current)
+                && entry.getValue().lastUpdate().isBefore(due)
+                && ((ReadTrackingRecord) entry.getValue()).takeRead()) {
+              prefetched.computeIfAbsent(
+                  entry.getKey(), path -> new Pair<>(now, stats.statAsync(path.toString())));
+            }
+          });
+    }
+  }
+
+  /** Holds file attributes and tracks whether they have been read since they were last fetched */
+  private static final class ReadTrackingRecord implements Record<Optional<FileAttributes>> {
+    private final Record<Optional<FileAttributes>> inner;
+    private volatile boolean read;
+
+    public ReadTrackingRecord(Updater<Optional<FileAttributes>> updater) {
+      inner =
+          new SimpleRecord<>(
+              new Updater<Optional<FileAttributes>>() {
+                @Override
+                public Stream<Pair<String, String>> identifiers() {
+                  return updater.identifiers();
+                }
+
+                @Override
+                public Owner owner() {
+                  return updater.owner();
+                }
+
+                @Override
+                public Optional<FileAttributes> update(Instant lastModifed) throws Exception {
+                  read = false;
+                  return updater.update(lastModifed);
+                }
+              });
+    }
+
+    @Override
+    public int collectionSize() {
+      return inner.collectionSize();
+    }
+
+    @Override
+    public void invalidate() {
+      inner.invalidate();
+    }
+
+    @Override
+    public Instant lastUpdate() {
+      return inner.lastUpdate();
+    }
+
+    @Override
+    public Optional<FileAttributes> readStale() {
+      return inner.readStale();
+    }
+
+    @Override
+    public Optional<FileAttributes> refresh() {
+      // Set before refreshing, so a read that causes a fetch is cleared by that fetch
+      read = true;
+      return inner.refresh();
+    }
+
+    /** Check if this record has been read since it was last fetched or checked */
+    public boolean takeRead() {
+      final boolean wasRead = read;
+      read = false;
+      return wasRead;
+    }
+
+    @Override
+    public Updater<?> updater() {
+      return inner.updater();
     }
   }
 
   static final ObjectMapper MAPPER = new ObjectMapper();
   private static final FileAttributes NXFILE = new FileAttributes.Builder().withSize(-1).build();
+  // Prefetched attributes are only used if they are newer than this
+  private static final Duration PREFETCH_WINDOW = Duration.ofMinutes(1);
   private static final Gauge refillBytes =
       Gauge.build(
               "shesmu_sftp_refill_bytes_sent", "The number of bytes sent to the refill command.")
@@ -110,12 +221,15 @@ public class SftpServer extends JsonPluginFile<Configuration> {
           .labelNames("target")
           .register();
   private Optional<Configuration> configuration = Optional.empty();
+  private volatile SshConnectionPool connections;
   private final Definer<SftpServer> definer;
   private final FileAttributeCache fileAttributes;
+  private final StatBatcher stats;
 
   public SftpServer(Path fileName, String instanceName, Definer<SftpServer> definer) {
     super(fileName, instanceName, MAPPER, Configuration.class);
     fileAttributes = new FileAttributeCache(fileName);
+    stats = new StatBatcher(fileName.toString(), () -> connections);
     this.definer = definer;
   }
 
@@ -201,126 +315,94 @@ public class SftpServer extends JsonPluginFile<Configuration> {
       boolean fileInTheWay,
       Consumer<Instant> updateMtime,
       boolean automatic) {
-    final Configuration config = configuration.orElse(null);
-    if (config == null) return new Pair<>(ActionState.UNKNOWN, fileInTheWay);
+    final SshConnectionPool pool = connections;
+    if (pool == null) return new Pair<>(ActionState.UNKNOWN, fileInTheWay);
 
-    try (final SSHClient client = new SSHClient()) {
-      client.addHostKeyVerifier(new PromiscuousVerifier());
+    try {
+      return pool.run(
+          connection -> makeSymlink(connection, link, target, force, updateMtime, automatic));
+    } catch (Exception e) {
+      e.printStackTrace();
+      symlinkErrors.labels(name()).inc();
+      return new Pair<>(ActionState.UNKNOWN, fileInTheWay);
+    }
+  }
 
-      client.connect(config.getHost(), config.getPort());
-      client.authPublickey(config.getUser());
-      final SFTPClient sftp = client.newSFTPClient();
-      if (sftp == null) {
-        return new Pair<>(ActionState.UNKNOWN, fileInTheWay);
+  private Pair<ActionState, Boolean> makeSymlink(
+      SshConnectionPool.Connection connection,
+      Path link,
+      String target,
+      boolean force,
+      Consumer<Instant> updateMtime,
+      boolean automatic)
+      throws IOException {
+    final SSHClient client = connection.client();
+    final SFTPClient sftp = connection.sftp();
+    // Because this library thinks that a file not existing is an error state worthy of
+    // exception,
+    // it throws whenever stat or lstat is called. There's a wrapper for stat that catches the
+    // exception and returns null, but there's no equivalent for lstat, so we reproduce that
+    // catch
+    // logic here.
+    final String linkStr = link.toString();
+    try {
+      final FileAttributes attributes = sftp.lstat(linkStr);
+      updateMtime.accept(Instant.ofEpochSecond(attributes.getMtime()));
+      // File exists and it is a symlink
+      if (attributes.getType() == FileMode.Type.SYMLINK && sftp.readlink(linkStr).equals(target)) {
+        // It's what we want; done
+        return new Pair<>(ActionState.SUCCEEDED, false);
       }
-      // Because this library thinks that a file not existing is an error state worthy of
-      // exception,
-      // it throws whenever stat or lstat is called. There's a wrapper for stat that catches the
-      // exception and returns null, but there's no equivalent for lstat, so we reproduce that
-      // catch
-      // logic here.
-      final String linkStr = link.toString();
-      try {
-        final FileAttributes attributes = sftp.lstat(linkStr);
-        updateMtime.accept(Instant.ofEpochSecond(attributes.getMtime()));
-        // File exists and it is a symlink
-        if (attributes.getType() == FileMode.Type.SYMLINK
-            && sftp.readlink(linkStr).equals(target)) {
-          // It's what we want; done
-          return new Pair<>(ActionState.SUCCEEDED, false);
+      if (!automatic) {
+        return new Pair<>(ActionState.HALP, true);
+      }
+      // We've been told to blow it away
+      if (force) {
+        sftp.rm(linkStr);
+        // Fun fact: OpenSSH has these parameters reversed compared to the spec.
+        // https://github.com/hierynomus/sshj/issues/144
+        if (client.getTransport().getServerVersion().contains("OpenSSH")) {
+          sftp.symlink(target, linkStr);
+        } else {
+          sftp.symlink(linkStr, target);
         }
+        updateMtime.accept(Instant.now());
+        return new Pair<>(ActionState.SUCCEEDED, true);
+      }
+      // It exists and it's not already a symlink to what we want; bail
+      return new Pair<>(ActionState.FAILED, true);
+    } catch (SFTPException sftpe) {
+      if (sftpe.getStatusCode() == Response.StatusCode.NO_SUCH_FILE) {
         if (!automatic) {
           return new Pair<>(ActionState.HALP, true);
         }
-        // We've been told to blow it away
-        if (force) {
-          sftp.rm(linkStr);
-          // Fun fact: OpenSSH has these parameters reversed compared to the spec.
-          // https://github.com/hierynomus/sshj/issues/144
-          if (client.getTransport().getServerVersion().contains("OpenSSH")) {
-            sftp.symlink(target, linkStr);
-          } else {
-            sftp.symlink(linkStr, target);
-          }
-          updateMtime.accept(Instant.now());
-          return new Pair<>(ActionState.SUCCEEDED, true);
+        // Create parent if necessary
+        final String dirStr = link.getParent().toString();
+        if (sftp.statExistence(dirStr) == null) {
+          sftp.mkdirs(dirStr);
         }
-        // It exists and it's not already a symlink to what we want; bail
-        return new Pair<>(ActionState.FAILED, true);
-      } catch (SFTPException sftpe) {
-        if (sftpe.getStatusCode() == Response.StatusCode.NO_SUCH_FILE) {
-          if (!automatic) {
-            return new Pair<>(ActionState.HALP, true);
-          }
-          // Create parent if necessary
-          final String dirStr = link.getParent().toString();
-          if (sftp.statExistence(dirStr) == null) {
-            sftp.mkdirs(dirStr);
-          }
 
-          // File does not exist, create it.
-          if (client.getTransport().getServerVersion().contains("OpenSSH")) {
-            sftp.symlink(target, linkStr);
-          } else {
-            sftp.symlink(linkStr, target);
-          }
-          updateMtime.accept(Instant.now());
-          return new Pair<>(ActionState.SUCCEEDED, false);
+        // File does not exist, create it.
+        if (client.getTransport().getServerVersion().contains("OpenSSH")) {
+          sftp.symlink(target, linkStr);
         } else {
-          // The SFTP connection might be in an error state, so reset it to be sure.
-          throw sftpe;
+          sftp.symlink(linkStr, target);
         }
+        updateMtime.accept(Instant.now());
+        return new Pair<>(ActionState.SUCCEEDED, false);
+      } else {
+        // The SFTP connection might be in an error state, so reset it to be sure.
+        throw sftpe;
       }
-
-    } catch (IOException e) {
-      e.printStackTrace();
-      symlinkErrors.labels(name()).inc();
-      return new Pair<>(ActionState.UNKNOWN, fileInTheWay);
     }
   }
 
   public boolean refill(String name, String command, ArrayNode data) {
-    final Configuration config = configuration.orElse(null);
-    if (config == null) return false;
+    final SshConnectionPool pool = connections;
+    if (pool == null) return false;
     int exitStatus;
-    try (final SSHClient client = new SSHClient()) {
-      client.addHostKeyVerifier(new PromiscuousVerifier());
-
-      client.connect(config.getHost(), config.getPort());
-      client.authPublickey(config.getUser());
-      refillLastUpdate.labels(fileName().toString(), name).setToCurrentTime();
-      try (final AutoCloseable latency = refillLatency.start(fileName().toString(), name);
-          final Session session = client.startSession()) {
-
-        try (final Session.Command process = session.exec(command);
-            final BufferedReader reader =
-                new BufferedReader(new InputStreamReader(process.getInputStream()));
-            final BufferedReader errorReader =
-                new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-          if ("UPDATE".equals(reader.readLine())) {
-            try (final OutputStream output =
-                new PrometheusLoggingOutputStream(
-                    process.getOutputStream(), refillBytes, fileName().toString(), name)) {
-              MAPPER.writeValue(output, data);
-              // Send EOF to the remote end since closing the stream doesn't do that:
-              // https://github.com/hierynomus/sshj/issues/143
-              client
-                  .getTransport()
-                  .write(new SSHPacket(Message.CHANNEL_EOF).putUInt32(process.getRecipient()));
-            }
-          }
-          final Map<String, String> labels = new TreeMap<>();
-          labels.put("command", command);
-          labels.put("name", name);
-          labels.put("type", "refiller");
-          labels.put("stream", "stderr");
-          errorReader.lines().forEach(l -> definer.log(l, labels));
-          labels.put("stream", "stdout");
-          reader.lines().forEach(l -> definer.log(l, labels));
-          process.join();
-          exitStatus = process.getExitStatus() == null ? 255 : process.getExitStatus();
-        }
-      }
+    try {
+      exitStatus = pool.run(connection -> refill(connection.client(), name, command, data));
     } catch (Exception e) {
       e.printStackTrace();
       exitStatus = 255;
@@ -329,37 +411,89 @@ public class SftpServer extends JsonPluginFile<Configuration> {
     return exitStatus == 0;
   }
 
-  ActionState rm(String path, boolean automatic) {
-    final Configuration config = configuration.orElse(null);
-    if (config == null) return ActionState.UNKNOWN;
-    try (final SSHClient client = new SSHClient()) {
-      client.addHostKeyVerifier(new PromiscuousVerifier());
-
-      client.connect(config.getHost(), config.getPort());
-      client.authPublickey(config.getUser());
-      final SFTPClient sftp = client.newSFTPClient();
-      if (sftp == null) {
-        return ActionState.UNKNOWN;
-      }
-      if (sftp.statExistence(path) != null) {
-        if (automatic) {
-          sftp.rm(path);
-          return ActionState.SUCCEEDED;
-        } else {
-          return ActionState.HALP;
+  private int refill(SSHClient client, String name, String command, ArrayNode data)
+      throws Exception {
+    refillLastUpdate.labels(fileName().toString(), name).setToCurrentTime();
+    try (final AutoCloseable latency = refillLatency.start(fileName().toString(), name);
+        final Session session = client.startSession()) {
+
+      try (final Session.Command process = session.exec(command);
+          final BufferedReader reader =
+              new BufferedReader(new InputStreamReader(process.getInputStream()));
+          final BufferedReader errorReader =
+              new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
+        if ("UPDATE".equals(reader.readLine())) {
+          try (final OutputStream output =
+              new PrometheusLoggingOutputStream(
+                  process.getOutputStream(), refillBytes, fileName().toString(), name)) {
+            MAPPER.writeValue(output, data);
+            // Send EOF to the remote end since closing the stream doesn't do that:
+            // https://github.com/hierynomus/sshj/issues/143
+            client
+                .getTransport()
+                .write(new SSHPacket(Message.CHANNEL_EOF).putUInt32(process.getRecipient()));
+          }
         }
-      } else {
-        return ActionState.SUCCEEDED;
+        final Map<String, String> labels = new TreeMap<>();
+        labels.put("command", command);
+        labels.put("name", name);
+        labels.put("type", "refiller");
+        labels.put("stream", "stderr");
+        errorReader.lines().forEach(l -> definer.log(l, labels));
+        labels.put("stream", "stdout");
+        reader.lines().forEach(l -> definer.log(l, labels));
+        process.join();
+        return process.getExitStatus() == null ? 255 : process.getExitStatus();
       }
-    } catch (IOException e) {
+    }
+  }
+
+  ActionState rm(String path, boolean automatic) {
+    final SshConnectionPool pool = connections;
+    if (pool == null) return ActionState.UNKNOWN;
+    try {
+      return pool.run(
+          connection -> {
+            final SFTPClient sftp = connection.sftp();
+            if (sftp.statExistence(path) != null) {
+              if (automatic) {
+                sftp.rm(path);
+                return ActionState.SUCCEEDED;
+              } else {
+                return ActionState.HALP;
+              }
+            } else {
+              return ActionState.SUCCEEDED;
+            }
+          });
+    } catch (Exception e) {
       e.printStackTrace();
       return ActionState.FAILED;
     }
   }
 
+  @Override
+  public void stop() {
+    final SshConnectionPool pool = connections;
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
   @Override
   public synchronized Optional<Integer> update(Configuration configuration) {
     this.configuration = Optional.of(configuration);
+    final SshConnectionPool oldConnections = connections;
+    connections =
+        new SshConnectionPool(
+            fileName().toString(),
+            configuration.getHost(),
+            configuration.getPort(),
+            configuration.getUser(),
+            configuration.getMaxConnections());
+    if (oldConnections != null) {
+      oldConnections.close();
+    }
     fileAttributes.invalidateAll();
     definer.clearRefillers();
     for (final Map.Entry<String, RefillerConfig> entry : configuration.getRefillers().entrySet()) {
@@ -423,48 +557,46 @@ public class SftpServer extends JsonPluginFile<Configuration> {
 
             @Override
             protected Optional<Object> fetch(Tuple key, Instant lastUpdated) throws Exception {
-              try (final SSHClient client = new SSHClient()) {
-                client.addHostKeyVerifier(new PromiscuousVerifier());
-
-                client.connect(configuration.getHost(), configuration.getPort());
-                client.authPublickey(configuration.getUser());
-                try (final Session session = client.startSession()) {
-
-                  try (final Session.Command process = session.exec(command);
-                      final BufferedReader reader =
-                          new BufferedReader(new InputStreamReader(process.getInputStream()));
-                      final BufferedReader errorReader =
-                          new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-                    try (final OutputStream output =
-                        new PrometheusLoggingOutputStream(
-                            process.getOutputStream(), refillBytes, fileName().toString(), name)) {
-                      final ArrayNode array = MAPPER.createArrayNode();
-                      for (int i = 0; i < parameters.length; i++) {
-                        parameters[i].accept(new PackJsonArray(array), key.get(i));
-                      }
-                      MAPPER.writeValue(output, array);
-                      // Send EOF to the remote end since closing the stream doesn't do that:
-                      // https://github.com/hierynomus/sshj/issues/143
-                      client
-                          .getTransport()
-                          .write(
-                              new SSHPacket(Message.CHANNEL_EOF).putUInt32(process.getRecipient()));
-                    }
-                    final JsonNode jsonResult = MAPPER.readTree(reader);
-                    final Map<String, String> labels = new TreeMap<>();
-                    labels.put("command", command);
-                    labels.put("name", name);
-                    labels.put("type", "function");
-                    errorReader.lines().forEach(l -> definer.log(l, labels));
-                    process.join();
-                    if (process.getExitStatus() == null || process.getExitStatus() != 0) {
-                      return Optional.empty();
+              return connections.run(connection -> invoke(connection.client(), key));
+            }
+
+            private Optional<Object> invoke(SSHClient client, Tuple key) throws Exception {
+              try (final Session session = client.startSession()) {
+
+                try (final Session.Command process = session.exec(command);
+                    final BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(process.getInputStream()));
+                    final BufferedReader errorReader =
+                        new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
+                  try (final OutputStream output =
+                      new PrometheusLoggingOutputStream(
+                          process.getOutputStream(), refillBytes, fileName().toString(), name)) {
+                    final ArrayNode array = MAPPER.createArrayNode();
+                    for (int i = 0; i < parameters.length; i++) {
+                      parameters[i].accept(new PackJsonArray(array), key.get(i));
                     }
-                    final Object result = returns.apply(new UnpackJson(jsonResult));
-                    return returns instanceof Imyhat.OptionalImyhat
-                        ? ((Optional<?>) result).map(x -> x)
-                        : Optional.of(result);
+                    MAPPER.writeValue(output, array);
+                    // Send EOF to the remote end since closing the stream doesn't do that:
+                    // https://github.com/hierynomus/sshj/issues/143
+                    client
+                        .getTransport()
+                        .write(
+                            new SSHPacket(Message.CHANNEL_EOF).putUInt32(process.getRecipient()));
+                  }
+                  final JsonNode jsonResult = MAPPER.readTree(reader);
+                  final Map<String, String> labels = new TreeMap<>();
+                  labels.put("command", command);
+                  labels.put("name", name);
+                  labels.put("type", "function");
+                  errorReader.lines().forEach(l -> definer.log(l, labels));
+                  process.join();
+                  if (process.getExitStatus() == null || process.getExitStatus() != 0) {
+                    return Optional.empty();
                   }
+                  final Object result = returns.apply(new UnpackJson(jsonResult));
+                  return returns instanceof Imyhat.OptionalImyhat
+                      ? ((Optional<?>) result).map(x -> x)
+                      : Optional.of(result);
                 }
               }
             }
@@ -0,0 +1,209 @@
+package ca.on.oicr.gsi.shesmu.sftp;
+
+import ca.on.oicr.gsi.prometheus.LatencyHistogram;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.Response.StatusCode;
+import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.sftp.SFTPException;
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+
+/**
+ * A pool of authenticated SSH connections to one server
+ *
+ * <p>Connecting requires a TCP connection, a key exchange, and authentication, so connections are
+ * kept open and reused. Once an operation has opened an SFTP channel on a connection, that channel
+ * is kept open with it. Each connection is used by one operation at a time; if the pool is at its
+ * limit, operations wait for a connection to be returned.
+ *
+ * <p>Before an idle connection is reused, it is checked to make sure the server has not closed it.
+ * Connections that have been idle too long are closed. If an operation fails because of the
+ * connection, it is closed rather than returned, since it may be in an error state; if the server
+ * simply refused the request (<i>e.g.</i>, the file does not exist), the connection is still good
+ * and is returned.
+ */
+final class SshConnectionPool {
+  /** An open connection, lent to one operation at a time */
+  static final class Connection {
+    private final SSHClient client;
+    private long lastUsed;
+    private SFTPClient sftp;
+
+    private Connection(SSHClient client) {
+      this.client = client;
+    }
+
+    public SSHClient client() {
+      return client;
+    }
+
+    private void close() {
+      try {
+        if (sftp != null) {
+          sftp.close();
+        }
+        client.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    private boolean isUsable(long now) {
+      return client.isConnected() && client.isAuthenticated() && now - lastUsed < IDLE_TIMEOUT;
+    }
+
+    /** Get the SFTP channel on this connection, opening it if necessary */
+    public SFTPClient sftp() throws IOException {
+      if (sftp == null) {
+        sftp = client.newSFTPClient();
+      }
+      return sftp;
+    }
+  }
+
+  /** Something to do with a connection */
+  interface Operation<T> {
+    T run(Connection connection) throws Exception;
+  }
+
+  private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toNanos(5);
+  // These are generated locally when the channel is broken, rather than sent by the server
+  private static final Set<StatusCode> TRANSPORT_ERRORS =
+      EnumSet.of(
+          StatusCode.UNKNOWN,
+          StatusCode.BAD_MESSAGE,
+          StatusCode.NO_CONNECTION,
+          StatusCode.CONNECITON_LOST);
+  private static final Gauge connections =
+      Gauge.build("shesmu_sftp_connections", "The number of open SSH connections in the pool.")
+          .labelNames("filename")
+          .register();
+  private static final Counter handshakes =
+      Counter.build(
+              "shesmu_sftp_handshakes",
+              "The number of times a new SSH connection was opened and authenticated.")
+          .labelNames("filename")
+          .register();
+  private static final LatencyHistogram waitTime =
+      new LatencyHistogram(
+          "shesmu_sftp_connection_wait_time",
+          "The time spent waiting for an SSH connection from the pool in seconds.",
+          "filename");
+  private boolean closed;
+  private final String host;
+  private final Deque<Connection> idle = new ArrayDeque<>();
+  private final String name;
+  private int open;
+  private final Semaphore permits;
+  private final int port;
+  private final String user;
+
+  public SshConnectionPool(String name, String host, int port, String user, int maxConnections) {
+    this.name = name;
+    this.host = host;
+    this.port = port;
+    this.user = user;
+    permits = new Semaphore(Math.max(1, maxConnections), true);
+  }
+
+  /** Close all the idle connections and any that are returned later */
+  public synchronized void close() {
+    closed = true;
+    while (!idle.isEmpty()) {
+      discard(idle.pollFirst());
+    }
+  }
+
+  /**
+   * Check if an operation failed because of the connection, rather than the server replying with an
+   * error
+   */
+  private static boolean isTransportError(Exception e) {
+    if (e instanceof SFTPException) {
+      return TRANSPORT_ERRORS.contains(((SFTPException) e).getStatusCode());
+    }
+    return e instanceof IOException;
+  }
+
+  private synchronized void discard(Connection connection) {
+    open--;
+    connections.labels(name).set(open);
+    connection.close();
+  }
+
+  private synchronized void release(Connection connection, boolean healthy) {
+    if (healthy && !closed) {
+      connection.lastUsed = System.nanoTime();
+      idle.addLast(connection);
+    } else {
+      discard(connection);
+    }
+  }
+
+  /**
+   * Run an operation on a connection from the pool
+   *
+   * @param operation the operation to perform; if it fails because of the connection, the
+   *     connection is closed
+   */
+  public <T> T run(Operation<T> operation) throws Exception {
+    try (AutoCloseable timer = waitTime.start(name)) {
+      permits.acquire();
+    }
+    try {
+      final Connection connection = take();
+      boolean healthy = false;
+      try {
+        final T result = operation.run(connection);
+        healthy = true;
+        return result;
+      } catch (final Exception e) {
+        healthy = !isTransportError(e) && connection.client.isConnected();
+        throw e;
+      } finally {
+        release(connection, healthy);
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  private Connection take() throws IOException {
+    synchronized (this) {
+      final long now = System.nanoTime();
+      // The least recently used connections are at the front, so close any that have been idle
+      // too long before picking the most recently used one
+      while (!idle.isEmpty() && !idle.peekFirst().isUsable(now)) {
+        discard(idle.pollFirst());
+      }
+      while (!idle.isEmpty()) {
+        final Connection connection = idle.pollLast();
+        if (connection.isUsable(now)) {
+          return connection;
+        }
+        discard(connection);
+      }
+      open++;
+      connections.labels(name).set(open);
+    }
+    final SSHClient client = new SSHClient();
+    try {
+      client.addHostKeyVerifier(new PromiscuousVerifier());
+      client.connect(host, port);
+      client.authPublickey(user);
+    } catch (IOException e) {
+      discard(new Connection(client));
+      throw e;
+    }
+    handshakes.labels(name).inc();
+    return new Connection(client);
+  }
+}
@@ -0,0 +1,207 @@
+package ca.on.oicr.gsi.shesmu.sftp;
+
+import ca.on.oicr.gsi.Pair;
+import io.prometheus.client.Counter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import net.schmizz.concurrent.Promise;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.PacketType;
+import net.schmizz.sshj.sftp.Response;
+import net.schmizz.sshj.sftp.SFTPEngine;
+import net.schmizz.sshj.sftp.SFTPException;
+
+/**
+ * Collects file attribute lookups from many threads and sends them to the SFTP server together
+ *
+ * <p>Each lookup is a round trip to the server, so checking files one at a time is limited by the
+ * latency of the connection. Instead, lookups are queued and a background thread takes all the
+ * waiting ones, sends a <tt>STAT</tt> request for each on one SFTP channel without waiting for the
+ * replies, and then collects the replies as they arrive. Lookups of the same path that are waiting
+ * at the same time share a request.
+ *
+ * <p>A caller that waits for each lookup will only ever have one in a batch, so callers that know
+ * which paths they will need should queue them all with {@link #statAsync(String)} before waiting.
+ */
+final class StatBatcher {
+  /** Send one <tt>STAT</tt> request without waiting for the reply */
+  interface StatRequester {
+    Promise<Response, SFTPException> request(String path) throws IOException;
+  }
+
+  private static final int MAX_BATCH = 500;
+  private static final ExecutorService WORKERS =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "sftp-stat");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private static final Counter batches =
+      Counter.build(
+              "shesmu_sftp_stat_batches",
+              "The number of batches of file attribute requests sent to the SFTP server.")
+          .labelNames("filename")
+          .register();
+  private static final Counter requests =
+      Counter.build(
+              "shesmu_sftp_stat_requests",
+              "The number of file attribute requests sent to the SFTP server in batches.")
+          .labelNames("filename")
+          .register();
+
+  private final Supplier<SshConnectionPool> connections;
+  private final String name;
+  private final Map<String, CompletableFuture<FileAttributes>> pending = new LinkedHashMap<>();
+  private boolean running;
+
+  public StatBatcher(String name, Supplier<SshConnectionPool> connections) {
+    this.name = name;
+    this.connections = connections;
+  }
+
+  private void drain() {
+    Map<String, CompletableFuture<FileAttributes>> batch = new LinkedHashMap<>();
+    try {
+      while (true) {
+        batch = new LinkedHashMap<>();
+        synchronized (this) {
+          final Iterator<Map.Entry<String, CompletableFuture<FileAttributes>>> iterator =
+              pending.entrySet().iterator();
+          while (iterator.hasNext() && batch.size() < MAX_BATCH) {
+            final Map.Entry<String, CompletableFuture<FileAttributes>> entry = iterator.next();
+            batch.put(entry.getKey(), entry.getValue());
+            iterator.remove();
+          }
+          if (batch.isEmpty()) {
+            running = false;
+            return;
+          }
+        }
+        batches.labels(name).inc();
+        requests.labels(name).inc(batch.size());
+        final Map<String, CompletableFuture<FileAttributes>> currentBatch = batch;
+        try {
+          connections
+              .get()
+              .run(
+                  connection -> {
+                    final SFTPEngine engine = connection.sftp().getSFTPEngine();
+                    final Charset charset = engine.getSubsystem().getRemoteCharset();
+                    send(
+                        path ->
+                            engine.request(
+                                engine.newRequest(PacketType.STAT).putString(path, charset)),
+                        engine.getTimeoutMs(),
+                        currentBatch);
+                    return null;
+                  });
+        } catch (Exception e) {
+          // Anything not already answered is lost with the connection
+          for (final CompletableFuture<FileAttributes> future : batch.values()) {
+            future.completeExceptionally(e);
+          }
+        }
+      }
+    } catch (Throwable e) {
+      // This thread is about to die, so fail everything that would be waiting for it and allow the
+      // next lookup to start a new one
+      synchronized (this) {
+        running = false;
+        for (final CompletableFuture<FileAttributes> future : batch.values()) {
+          future.completeExceptionally(e);
+        }
+        for (final CompletableFuture<FileAttributes> future : pending.values()) {
+          future.completeExceptionally(e);
+        }
+        pending.clear();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Send a request for every path in the batch and then complete each future with its reply
+   *
+   * @param timeoutMs the time to wait for each reply
+   * @throws IOException if the channel is no longer usable; any futures not yet completed must be
+   *     completed by the caller
+   */
+  static void send(
+      StatRequester requester, long timeoutMs, Map<String, CompletableFuture<FileAttributes>> batch)
+      throws IOException {
+    final List<Pair<CompletableFuture<FileAttributes>, Promise<Response, SFTPException>>>
+        responses = new ArrayList<>();
+    for (final Map.Entry<String, CompletableFuture<FileAttributes>> entry : batch.entrySet()) {
+      responses.add(new Pair<>(entry.getValue(), requester.request(entry.getKey())));
+    }
+    for (final Pair<CompletableFuture<FileAttributes>, Promise<Response, SFTPException>> response :
+        responses) {
+      try {
+        response
+            .first()
+            .complete(
+                response
+                    .second()
+                    .retrieve(timeoutMs, TimeUnit.MILLISECONDS)
+                    .ensurePacketTypeIs(PacketType.ATTRS)
+                    .readFileAttributes());
+      } catch (SFTPException e) {
+        if (e.getStatusCode() == Response.StatusCode.NO_SUCH_FILE) {
+          response.first().complete(null);
+        } else if (e.getStatusCode() == Response.StatusCode.UNKNOWN) {
+          // This is a timeout or protocol error rather than a reply from the server, so the
+          // channel can't be trusted
+          throw e;
+        } else {
+          response.first().completeExceptionally(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Wait for a lookup queued by {@link #statAsync(String)}
+   *
+   * @return the attributes or null if the file does not exist
+   */
+  public static FileAttributes await(CompletableFuture<FileAttributes> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Queue a lookup of the attributes of a file, following symlinks, without waiting for it
+   *
+   * @param path the path on the server
+   * @return a future that completes with the attributes or null if the file does not exist
+   */
+  public CompletableFuture<FileAttributes> statAsync(String path) {
+    final CompletableFuture<FileAttributes> future;
+    synchronized (this) {
+      future = pending.computeIfAbsent(path, k -> new CompletableFuture<>());
+      if (!running) {
+        running = true;
+        WORKERS.execute(this::drain);
+      }
+    }
+    return future;
+  }
+}
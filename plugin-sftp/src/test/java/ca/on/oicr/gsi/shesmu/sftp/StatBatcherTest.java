@@ -0,0 +1,132 @@
+package ca.on.oicr.gsi.shesmu.sftp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import net.schmizz.concurrent.Promise;
+import net.schmizz.sshj.common.LoggerFactory;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.PacketType;
+import net.schmizz.sshj.sftp.Response;
+import net.schmizz.sshj.sftp.Response.StatusCode;
+import net.schmizz.sshj.sftp.SFTPException;
+import net.schmizz.sshj.sftp.SFTPPacket;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatBatcherTest {
+  private static final class FakeServer implements StatBatcher.StatRequester {
+    private final Map<String, Response> replies = new HashMap<>();
+    private final List<String> requested = new ArrayList<>();
+
+    private void attributes(String path, long size) throws SFTPException {
+      final SFTPPacket<Response> packet = new SFTPPacket<>(PacketType.ATTRS);
+      packet.putUInt32(replies.size());
+      packet.putFileAttributes(new FileAttributes.Builder().withSize(size).build());
+      replies.put(path, new Response(packet, 3));
+    }
+
+    @Override
+    public Promise<Response, SFTPException> request(String path) {
+      requested.add(path);
+      final Promise<Response, SFTPException> promise =
+          new Promise<>(path, SFTPException.chainer, LoggerFactory.DEFAULT);
+      // Paths with no reply are never answered, as if the channel had stopped responding
+      final Response reply = replies.get(path);
+      if (reply != null) {
+        promise.deliver(reply);
+      }
+      return promise;
+    }
+
+    private void status(String path, StatusCode code) throws SFTPException {
+      final SFTPPacket<Response> packet = new SFTPPacket<>(PacketType.STATUS);
+      packet.putUInt32(replies.size());
+      packet.putUInt32(code.getCode());
+      packet.putString(code.name());
+      packet.putString("");
+      replies.put(path, new Response(packet, 3));
+    }
+  }
+
+  private static Map<String, CompletableFuture<FileAttributes>> batch(String... paths) {
+    final Map<String, CompletableFuture<FileAttributes>> batch = new LinkedHashMap<>();
+    for (final String path : paths) {
+      batch.put(path, new CompletableFuture<>());
+    }
+    return batch;
+  }
+
+  @Test
+  public void testMixedReplies() throws Exception {
+    final FakeServer server = new FakeServer();
+    server.attributes("/present", 42);
+    server.status("/missing", StatusCode.NO_SUCH_FILE);
+    server.status("/denied", StatusCode.PERMISSION_DENIED);
+    server.attributes("/empty", 0);
+    final Map<String, CompletableFuture<FileAttributes>> batch =
+        batch("/present", "/missing", "/denied", "/empty");
+
+    StatBatcher.send(server, 1000, batch);
+
+    Assert.assertEquals(
+        Arrays.asList("/present", "/missing", "/denied", "/empty"), server.requested);
+    Assert.assertEquals(42, StatBatcher.await(batch.get("/present")).getSize());
+    Assert.assertNull(StatBatcher.await(batch.get("/missing")));
+    Assert.assertEquals(0, StatBatcher.await(batch.get("/empty")).getSize());
+    try {
+      StatBatcher.await(batch.get("/denied"));
+      Assert.fail("Permission denied reply should fail the lookup");
+    } catch (SFTPException e) {
+      Assert.assertEquals(StatusCode.PERMISSION_DENIED, e.getStatusCode());
+    }
+  }
+
+  @Test
+  public void testNoReply() throws Exception {
+    final FakeServer server = new FakeServer();
+    server.attributes("/before", 1);
+    server.attributes("/after", 2);
+    final Map<String, CompletableFuture<FileAttributes>> batch =
+        batch("/before", "/silent", "/after");
+
+    try {
+      StatBatcher.send(server, 10, batch);
+      Assert.fail("A missing reply should make the channel unusable");
+    } catch (SFTPException e) {
+      Assert.assertEquals(StatusCode.UNKNOWN, e.getStatusCode());
+    }
+    // Every request was sent before waiting for any reply
+    Assert.assertEquals(Arrays.asList("/before", "/silent", "/after"), server.requested);
+    Assert.assertEquals(1, StatBatcher.await(batch.get("/before")).getSize());
+    // The rest are left for the caller to fail along with the connection
+    Assert.assertFalse(batch.get("/silent").isDone());
+    Assert.assertFalse(batch.get("/after").isDone());
+  }
+
+  @Test
+  public void testErrorFailsLookups() throws Exception {
+    final StatBatcher batcher =
+        new StatBatcher(
+            "test",
+            () -> {
+              throw new AssertionError("No connection for you");
+            });
+    for (int i = 0; i < 2; i++) {
+      // If the worker dies without cleaning up, the second lookup is never sent
+      final CompletableFuture<FileAttributes> future = batcher.statAsync("/any");
+      try {
+        future.get(10, TimeUnit.SECONDS);
+        Assert.fail("Lookup should fail with the error");
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof AssertionError);
+      }
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package ca.on.oicr.gsi.shesmu.benchmarks;
+
+import ca.on.oicr.gsi.shesmu.plugin.action.Action;
+import ca.on.oicr.gsi.shesmu.plugin.action.ActionServices;
+import ca.on.oicr.gsi.shesmu.plugin.action.ActionState;
+import ca.on.oicr.gsi.shesmu.server.ActionProcessor;
+import ca.on.oicr.gsi.shesmu.server.ActionStateStore;
+import ca.on.oicr.gsi.shesmu.server.plugins.PluginManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures olives delivering actions to the action processor
+ *
+ * <p>On each pass over the input, olives deliver mostly the same actions as the last pass, so
+ * accepting duplicates is the common case. Accepting new actions can only be measured once per
+ * empty processor, so it is measured as a single shot per iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+public class ActionProcessorBenchmark {
+  public static final class BenchmarkAction extends Action {
+    private final int id;
+
+    public BenchmarkAction(int id) {
+      super("benchmark");
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof BenchmarkAction && ((BenchmarkAction) other).id == id;
+    }
+
+    @Override
+    public void generateUUID(Consumer<byte[]> digest) {
+      digest.accept(ByteBuffer.allocate(Integer.BYTES).putInt(id).array());
+    }
+
+    @Override
+    public int hashCode() {
+      return Integer.hashCode(id);
+    }
+
+    @Override
+    public ActionState perform(ActionServices services) {
+      return ActionState.SUCCEEDED;
+    }
+
+    @Override
+    public int priority() {
+      return 0;
+    }
+
+    @Override
+    public long retryMinutes() {
+      return 10;
+    }
+
+    @Override
+    public boolean search(Pattern query) {
+      return false;
+    }
+
+    @Override
+    public ObjectNode toJson(ObjectMapper mapper) {
+      return mapper.createObjectNode().put("id", id);
+    }
+  }
+
+  private static final ActionServices SERVICES =
+      new ActionServices() {
+        @Override
+        public Set<String> isOverloaded(Set<String> services) {
+          return Collections.emptySet();
+        }
+      };
+  private static final String[] TAGS = {"benchmark"};
+
+  private List<Action> actions;
+
+  @Param({"10000", "1000000"})
+  public int count;
+
+  private ActionProcessor populated;
+  private ActionProcessor processor;
+
+  @Benchmark
+  public int acceptDuplicate() {
+    return accept(populated);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Measurement(iterations = 20)
+  @Warmup(iterations = 5)
+  public int acceptNew() {
+    return accept(processor);
+  }
+
+  private int accept(ActionProcessor target) {
+    int duplicates = 0;
+    for (int i = 0; i < actions.size(); i++) {
+      if (target.accept(actions.get(i), "benchmark.shesmu", i % 100, 1, "hash", TAGS)) {
+        duplicates++;
+      }
+    }
+    return duplicates;
+  }
+
+  private ActionProcessor create() {
+    return new ActionProcessor(
+        "http://localhost:8081/", new PluginManager(), SERVICES, ActionStateStore.create());
+  }
+
+  @Setup(Level.Iteration)
+  public void emptyProcessor() {
+    processor = create();
+  }
+
+  @Setup
+  public void setup() {
+    actions = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      actions.add(new BenchmarkAction(i));
+    }
+    populated = create();
+    accept(populated);
+  }
+}
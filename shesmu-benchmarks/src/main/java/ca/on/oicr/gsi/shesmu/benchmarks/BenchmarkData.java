@@ -0,0 +1,72 @@
+package ca.on.oicr.gsi.shesmu.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Generates synthetic input data for the benchmarks
+ *
+ * <p>The data is generated from a fixed seed, so every run of a benchmark sees the same records.
+ * Every outer record's project matches exactly one inner record, so joins produce as many rows as
+ * the outer input.
+ */
+final class BenchmarkData {
+  public static final int PROJECTS = 1000;
+  private static final int TAG_SETS = 64;
+  private static final int WORKFLOWS = 17;
+
+  /** Create the records for the <tt>benchmark_inner</tt> input format */
+  public static List<Object> inner() {
+    return IntStream.range(0, PROJECTS)
+        .mapToObj(i -> new BenchmarkInnerValue(project(i), i))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Create the records for the <tt>benchmark</tt> input format
+   *
+   * @param rows the number of records to create
+   */
+  public static List<Object> outer(int rows) {
+    final Random random = new Random(rows);
+    // Real input formats have few distinct values in most columns, so share them the same way
+    final String[] projects =
+        IntStream.range(0, PROJECTS).mapToObj(BenchmarkData::project).toArray(String[]::new);
+    final String[] workflows =
+        IntStream.range(0, WORKFLOWS).mapToObj(i -> "workflow" + i).toArray(String[]::new);
+    final List<Set<String>> tags = new ArrayList<>();
+    for (int i = 0; i < TAG_SETS; i++) {
+      final Set<String> set = new TreeSet<>();
+      for (int bit = 0; bit < 6; bit++) {
+        if ((i & (1 << bit)) != 0) {
+          set.add("tag" + bit);
+        }
+      }
+      tags.add(Collections.unmodifiableSet(set));
+    }
+    final List<Object> results = new ArrayList<>(rows);
+    for (int i = 0; i < rows; i++) {
+      results.add(
+          new BenchmarkValue(
+              Integer.toString(i),
+              random.nextInt(1 << 30),
+              random.nextInt(1000),
+              projects[random.nextInt(PROJECTS)],
+              tags.get(random.nextInt(TAG_SETS)),
+              workflows[random.nextInt(WORKFLOWS)]));
+    }
+    return results;
+  }
+
+  private static String project(int i) {
+    return "project" + i;
+  }
+
+  private BenchmarkData() {}
+}
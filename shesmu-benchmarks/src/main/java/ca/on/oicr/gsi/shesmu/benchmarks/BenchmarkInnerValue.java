@@ -0,0 +1,24 @@
+package ca.on.oicr.gsi.shesmu.benchmarks;
+
+import ca.on.oicr.gsi.shesmu.plugin.input.ShesmuVariable;
+
+/** A synthetic input format record to be joined against {@link BenchmarkValue} */
+public class BenchmarkInnerValue {
+  private final String inner_project;
+  private final long weight;
+
+  public BenchmarkInnerValue(String inner_project, long weight) {
+    this.inner_project = inner_project;
+    this.weight = weight;
+  }
+
+  @ShesmuVariable(type = "s")
+  public String inner_project() {
+    return inner_project;
+  }
+
+  @ShesmuVariable(type = "i")
+  public long weight() {
+    return weight;
+  }
+}
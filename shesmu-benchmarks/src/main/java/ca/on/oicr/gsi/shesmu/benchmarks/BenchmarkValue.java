@@ -0,0 +1,59 @@
+package ca.on.oicr.gsi.shesmu.benchmarks;
+
+import ca.on.oicr.gsi.shesmu.plugin.input.ShesmuVariable;
+import java.util.Set;
+
+/** A synthetic input format record, shaped like a file provenance record */
+public class BenchmarkValue {
+  private final String accession;
+  private final long file_size;
+  private final long library_size;
+  private final String project;
+  private final Set<String> tags;
+  private final String workflow;
+
+  public BenchmarkValue(
+      String accession,
+      long file_size,
+      long library_size,
+      String project,
+      Set<String> tags,
+      String workflow) {
+    this.accession = accession;
+    this.file_size = file_size;
+    this.library_size = library_size;
+    this.project = project;
+    this.tags = tags;
+    this.workflow = workflow;
+  }
+
+  @ShesmuVariable(type = "s")
+  public String accession() {
+    return accession;
+  }
+
+  @ShesmuVariable(type = "i")
+  public long file_size() {
+    return file_size;
+  }
+
+  @ShesmuVariable(type = "i", signable = true)
+  public long library_size() {
+    return library_size;
+  }
+
+  @ShesmuVariable(type = "s", signable = true)
+  public String project() {
+    return project;
+  }
+
+  @ShesmuVariable(type = "as")
+  public Set<String> tags() {
+    return tags;
+  }
+
+  @ShesmuVariable(type = "s")
+  public String workflow() {
+    return workflow;
+  }
+}
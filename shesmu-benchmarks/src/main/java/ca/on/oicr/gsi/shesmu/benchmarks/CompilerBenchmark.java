@@ -0,0 +1,31 @@
+package ca.on.oicr.gsi.shesmu.benchmarks;
+
+import ca.on.oicr.gsi.shesmu.runtime.ActionGenerator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the time to parse, type check, and generate bytecode for an olive file */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+public class CompilerBenchmark {
+  @Param({"flatten", "group", "join", "leftjoin", "pick", "subsample"})
+  public String olive;
+
+  @Benchmark
+  public ActionGenerator compile() {
+    return Olives.compile(olive);
+  }
+}
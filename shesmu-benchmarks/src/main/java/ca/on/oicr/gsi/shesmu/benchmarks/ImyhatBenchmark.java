@@ -0,0 +1,80 @@
+package ca.on.oicr.gsi.shesmu.benchmarks;
+
+import ca.on.oicr.gsi.shesmu.plugin.Tuple;
+import ca.on.oicr.gsi.shesmu.plugin.types.Imyhat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures sorting values using the comparators provided by {@link Imyhat}
+ *
+ * <p>These are the comparators used by <tt>Sort</tt>, <tt>Pick</tt>, <tt>Max</tt>, and sets in
+ * olives.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+public class ImyhatBenchmark {
+  private Comparator<Object> comparator;
+
+  @Param({"10000", "1000000"})
+  public int rows;
+
+  @Param({"s", "t2si", "ai"})
+  public String type;
+
+  private Object[] values;
+
+  @SuppressWarnings("unchecked")
+  @Setup
+  public void setup() {
+    final Imyhat imyhat = Imyhat.parse(type);
+    comparator = (Comparator<Object>) imyhat.comparator();
+    final Random random = new Random(rows);
+    values = new Object[rows];
+    for (int i = 0; i < rows; i++) {
+      final String text = "value" + random.nextInt(rows);
+      final long number = random.nextInt(1000);
+      switch (type) {
+        case "s":
+          values[i] = text;
+          break;
+        case "t2si":
+          values[i] = new Tuple(text, number);
+          break;
+        default:
+          final Set<Long> list = new TreeSet<>();
+          for (int j = random.nextInt(5); j >= 0; j--) {
+            list.add((long) random.nextInt(1000));
+          }
+          values[i] = list;
+          break;
+      }
+    }
+  }
+
+  @Benchmark
+  public Object[] sort() {
+    final Object[] copy = Arrays.copyOf(values, values.length);
+    Arrays.sort(copy, comparator);
+    return copy;
+  }
+}
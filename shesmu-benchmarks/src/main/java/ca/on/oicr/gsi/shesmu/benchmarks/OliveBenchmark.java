@@ -0,0 +1,54 @@
+package ca.on.oicr.gsi.shesmu.benchmarks;
+
+import ca.on.oicr.gsi.shesmu.runtime.ActionGenerator;
+import ca.on.oicr.gsi.shesmu.runtime.InputProvider;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to run an olive file over the synthetic input
+ *
+ * <p>The input is generated and the olive compiled once per trial, so only the olive's own work is
+ * measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+public class OliveBenchmark {
+  private ActionGenerator generator;
+  private InputProvider input;
+
+  @Param({"flatten", "group", "join", "leftjoin", "pick", "subsample"})
+  public String olive;
+
+  @Param({"10000", "1000000", "10000000"})
+  public int rows;
+
+  @Benchmark
+  public long run() {
+    generator.run(Olives.SERVICES, input);
+    return Olives.CountingRefiller.lastCount;
+  }
+
+  @Setup
+  public void setup() {
+    final List<Object> inner = BenchmarkData.inner();
+    final List<Object> outer = BenchmarkData.outer(rows);
+    input = format -> format.equals("benchmark_inner") ? inner.stream() : outer.stream();
+    generator = Olives.compile(olive);
+  }
+}
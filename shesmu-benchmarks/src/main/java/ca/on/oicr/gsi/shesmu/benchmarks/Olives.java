@@ -0,0 +1,281 @@
+package ca.on.oicr.gsi.shesmu.benchmarks;
+
+import ca.on.oicr.gsi.shesmu.compiler.LiveExportConsumer;
+import ca.on.oicr.gsi.shesmu.compiler.RefillerDefinition;
+import ca.on.oicr.gsi.shesmu.compiler.RefillerParameterDefinition;
+import ca.on.oicr.gsi.shesmu.compiler.Renderer;
+import ca.on.oicr.gsi.shesmu.compiler.definitions.ActionDefinition;
+import ca.on.oicr.gsi.shesmu.compiler.definitions.ConstantDefinition;
+import ca.on.oicr.gsi.shesmu.compiler.definitions.DefinitionRepository;
+import ca.on.oicr.gsi.shesmu.compiler.definitions.FunctionDefinition;
+import ca.on.oicr.gsi.shesmu.compiler.definitions.InputFormatDefinition;
+import ca.on.oicr.gsi.shesmu.compiler.definitions.SignatureDefinition;
+import ca.on.oicr.gsi.shesmu.core.StandardDefinitions;
+import ca.on.oicr.gsi.shesmu.plugin.action.Action;
+import ca.on.oicr.gsi.shesmu.plugin.dumper.Dumper;
+import ca.on.oicr.gsi.shesmu.plugin.functions.FunctionParameter;
+import ca.on.oicr.gsi.shesmu.plugin.input.InputFormat;
+import ca.on.oicr.gsi.shesmu.plugin.refill.Refiller;
+import ca.on.oicr.gsi.shesmu.plugin.types.Imyhat;
+import ca.on.oicr.gsi.shesmu.runtime.ActionGenerator;
+import ca.on.oicr.gsi.shesmu.runtime.OliveServices;
+import ca.on.oicr.gsi.shesmu.server.HotloadingCompiler;
+import ca.on.oicr.gsi.shesmu.server.plugins.AnnotatedInputFormatDefinition;
+import ca.on.oicr.gsi.shesmu.util.NameLoader;
+import ca.on.oicr.gsi.status.ConfigurationSection;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Method;
+
+/**
+ * Compiles the benchmark olive files
+ *
+ * <p>The olives use the synthetic input formats and send their output to a refiller that only
+ * counts the rows, so the benchmarks measure the olive and not what consumes its output.
+ */
+final class Olives {
+  /** A refiller that counts the rows it receives */
+  public static class CountingRefiller<I> extends Refiller<I> {
+    public static volatile long lastCount;
+    public Function<I, String> value;
+
+    @Override
+    public void consume(Stream<I> items) {
+      lastCount = items.map(value).count();
+    }
+  }
+
+  private static final DefinitionRepository DEFINITIONS =
+      DefinitionRepository.concat(
+          new StandardDefinitions(),
+          new DefinitionRepository() {
+            @Override
+            public Stream<ActionDefinition> actions() {
+              return Stream.empty();
+            }
+
+            @Override
+            public Stream<ConstantDefinition> constants() {
+              return Stream.empty();
+            }
+
+            @Override
+            public Stream<FunctionDefinition> functions() {
+              return Stream.empty();
+            }
+
+            @Override
+            public Stream<ConfigurationSection> listConfiguration() {
+              return Stream.empty();
+            }
+
+            @Override
+            public Stream<RefillerDefinition> refillers() {
+              return Stream.of(
+                  new RefillerDefinition() {
+                    @Override
+                    public String description() {
+                      return "Counts rows for benchmarking";
+                    }
+
+                    @Override
+                    public Path filename() {
+                      return null;
+                    }
+
+                    @Override
+                    public String name() {
+                      return "benchmark";
+                    }
+
+                    @Override
+                    public Stream<RefillerParameterDefinition> parameters() {
+                      return Stream.of(
+                          new RefillerParameterDefinition() {
+                            @Override
+                            public String name() {
+                              return "value";
+                            }
+
+                            @Override
+                            public void render(
+                                Renderer renderer, int refillerLocal, int functionLocal) {
+                              renderer.methodGen().loadLocal(refillerLocal);
+                              renderer.methodGen().loadLocal(functionLocal);
+                              renderer
+                                  .methodGen()
+                                  .putField(
+                                      Type.getType(CountingRefiller.class),
+                                      "value",
+                                      Type.getType(Function.class));
+                            }
+
+                            @Override
+                            public Imyhat type() {
+                              return Imyhat.STRING;
+                            }
+                          });
+                    }
+
+                    @Override
+                    public void render(Renderer renderer) {
+                      renderer.methodGen().newInstance(Type.getType(CountingRefiller.class));
+                      renderer.methodGen().dup();
+                      renderer
+                          .methodGen()
+                          .invokeConstructor(
+                              Type.getType(CountingRefiller.class),
+                              new Method("<init>", Type.VOID_TYPE, new Type[0]));
+                    }
+                  });
+            }
+
+            @Override
+            public Stream<SignatureDefinition> signatures() {
+              return Stream.empty();
+            }
+
+            @Override
+            public void writeJavaScriptRenderer(PrintStream writer) {
+              // Do nothing.
+            }
+          });
+  private static final NameLoader<InputFormatDefinition> INPUT_FORMATS;
+  private static final LiveExportConsumer NO_EXPORTS =
+      new LiveExportConsumer() {
+        @Override
+        public void constant(MethodHandle method, String name, Imyhat type) {
+          // Do nothing
+        }
+
+        @Override
+        public void function(
+            MethodHandle method,
+            String name,
+            Imyhat returnType,
+            Supplier<Stream<FunctionParameter>> parameters) {
+          // Do nothing
+        }
+      };
+  /** Services for olives that discard all output */
+  public static final OliveServices SERVICES =
+      new OliveServices() {
+        @Override
+        public boolean accept(
+            Action action, String filename, int line, int column, String hash, String[] tags) {
+          return false;
+        }
+
+        @Override
+        public boolean accept(
+            String[] labels,
+            String[] annotation,
+            long ttl,
+            String filename,
+            int line,
+            int column,
+            String hash) {
+          return false;
+        }
+
+        @Override
+        public Dumper findDumper(String name, Imyhat... types) {
+          return new Dumper() {
+            @Override
+            public void stop() {
+              // Do nothing.
+            }
+
+            @Override
+            public void write(Object... values) {
+              // Do nothing.
+            }
+          };
+        }
+
+        @Override
+        public boolean isOverloaded(String... services) {
+          return false;
+        }
+
+        @Override
+        public <T> Stream<T> measureFlow(
+            Stream<T> input,
+            String filename,
+            int line,
+            int column,
+            int oliveLine,
+            int oliveColumn) {
+          return input;
+        }
+
+        @Override
+        public void oliveRuntime(String filename, int line, int column, long timeInNs) {
+          // Do nothing.
+        }
+      };
+
+  static {
+    try {
+      INPUT_FORMATS =
+          new NameLoader<>(
+              Stream.of(
+                  new AnnotatedInputFormatDefinition(
+                      new InputFormat("benchmark", BenchmarkValue.class)),
+                  new AnnotatedInputFormatDefinition(
+                      new InputFormat("benchmark_inner", BenchmarkInnerValue.class))),
+              InputFormatDefinition::name);
+    } catch (IllegalAccessException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * Compile an olive file
+   *
+   * @param name the name of the olive file in the benchmark resources, without the extension
+   */
+  public static ActionGenerator compile(String name) {
+    final String fileName = name + ".shesmu";
+    final String source = read(fileName);
+    final HotloadingCompiler compiler = new HotloadingCompiler(INPUT_FORMATS::get, DEFINITIONS);
+    return compiler
+        .compile(fileName, source, NO_EXPORTS, table -> {})
+        .orElseThrow(
+            () ->
+                new IllegalStateException(
+                    String.format(
+                        "Failed to compile %s: %s",
+                        fileName, compiler.errors().collect(Collectors.joining("; ")))));
+  }
+
+  /** Read an olive file from the benchmark resources */
+  public static String read(String fileName) {
+    try (InputStream input = Olives.class.getResourceAsStream(fileName);
+        ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+      if (input == null) {
+        throw new IllegalArgumentException("No such olive file: " + fileName);
+      }
+      final byte[] buffer = new byte[4096];
+      int length;
+      while ((length = input.read(buffer)) > 0) {
+        output.write(buffer, 0, length);
+      }
+      return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private Olives() {}
+}
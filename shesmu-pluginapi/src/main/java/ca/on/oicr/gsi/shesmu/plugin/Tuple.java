@@ -8,10 +8,13 @@ import java.util.stream.Stream;
  * A fixed-length list of heterogeneous values
  *
  * <p>This class is mostly a thin wrapper on an array of objects with sensible equals/hashcode
- * methods
+ * methods. Since tuples are heavily used as keys when grouping and joining, the hash code is
+ * computed once and kept.
  */
 public final class Tuple {
   private final Object[] elements;
+  // Like String, zero means not yet computed; a race only means it is computed more than once
+  private int hash;
 
   /**
    * Create a new tuple from the specified array
@@ -46,6 +49,9 @@ public final class Tuple {
       return false;
     }
     final Tuple other = (Tuple) obj;
+    if (hashCode() != other.hashCode()) {
+      return false;
+    }
     if (!Arrays.equals(elements, other.elements)) {
       return false;
     }
@@ -63,9 +69,12 @@ public final class Tuple {
 
   @Override
   public int hashCode() {
-    final int prime = 31;
-    int result = 1;
-    result = prime * result + Arrays.hashCode(elements);
+    int result = hash;
+    if (result == 0) {
+      final int prime = 31;
+      result = prime + Arrays.hashCode(elements);
+      hash = result;
+    }
     return result;
   }
 
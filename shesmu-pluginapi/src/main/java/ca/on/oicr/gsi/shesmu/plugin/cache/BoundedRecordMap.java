@@ -0,0 +1,343 @@
+package ca.on.oicr.gsi.shesmu.plugin.cache;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * The records in a key-value cache, with a limit on how many are kept
+ *
+ * <p>Records are evicted using a segmented LRU policy: a new record starts in a probationary
+ * segment and is moved to a protected segment if it is used again. When the cache is over its
+ * limits, the least recently used probationary records are evicted first, so a burst of keys that
+ * are only used once cannot push out the records that are used repeatedly. The protected segment is
+ * limited to 80% of the cache; records that overflow it are returned to the probationary segment.
+ *
+ * <p>The weight of a record is the size of its collection, as of the last time it was used. Records
+ * that have not been used for several TTLs are also evicted, regardless of the limits.
+ *
+ * <p>Records are found using a concurrent map, so reading a record that is already in the cache
+ * does not take a lock. Instead, the read is added to a buffer and the segments are updated in
+ * batches by whichever thread finds the buffer full and the lock free. If the buffer overflows,
+ * reads are dropped, so the eviction order is approximate under heavy load. Creating a record and
+ * evicting records take the lock.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+final class BoundedRecordMap<K, V> implements Iterable<Map.Entry<K, Record<V>>> {
+  private static final class Node<K, V> {
+    private final K key;
+    private volatile long lastAccess;
+    private final Record<V> record;
+    private long weight;
+
+    private Node(K key, Record<V> record) {
+      this.key = key;
+      this.record = record;
+    }
+  }
+
+  /**
+   * The number of TTLs a record may go unused before being evicted, if the cache does not set one
+   *
+   * <p>This is read from the <tt>SHESMU_CACHE_IDLE_TTLS</tt> environment variable; zero disables
+   * idle eviction.
+   */
+  static final int DEFAULT_IDLE_TTLS =
+      Optional.ofNullable(System.getenv("SHESMU_CACHE_IDLE_TTLS"))
+          .map(Integer::parseInt)
+          .orElse(10);
+  /**
+   * The maximum number of records in a cache, if the cache does not set one
+   *
+   * <p>This is read from the <tt>SHESMU_CACHE_MAX_ENTRIES</tt> environment variable.
+   */
+  static final long DEFAULT_MAX_ENTRIES =
+      Optional.ofNullable(System.getenv("SHESMU_CACHE_MAX_ENTRIES"))
+          .map(Long::parseLong)
+          .orElse(Long.MAX_VALUE);
+  /**
+   * The maximum total weight of records in a cache, if the cache does not set one
+   *
+   * <p>This is read from the <tt>SHESMU_CACHE_MAX_WEIGHT</tt> environment variable.
+   */
+  static final long DEFAULT_MAX_WEIGHT =
+      Optional.ofNullable(System.getenv("SHESMU_CACHE_MAX_WEIGHT"))
+          .map(Long::parseLong)
+          .orElse(Long.MAX_VALUE);
+
+  /** The number of buffered reads that will trigger updating the segments */
+  private static final int DRAIN_THRESHOLD = 64;
+  /** The number of reads that can be buffered before further reads are dropped */
+  private static final int READ_BUFFER_SIZE = 1024;
+
+  private static final Counter evictions =
+      Counter.build("shesmu_cache_evictions", "The number of records evicted from a cache.")
+          .labelNames("name", "reason")
+          .register();
+  private static final Counter hits =
+      Counter.build(
+              "shesmu_cache_hits", "The number of times a key was found in a cache when requested.")
+          .labelNames("name")
+          .register();
+  private static final Counter misses =
+      Counter.build(
+              "shesmu_cache_misses",
+              "The number of times a key was not found in a cache when requested and a new record had to be created.")
+          .labelNames("name")
+          .register();
+  private static final Gauge totalWeightGauge =
+      Gauge.build(
+              "shesmu_cache_weight",
+              "The total size of the collections stored in a cache, as used for eviction.")
+          .labelNames("name")
+          .register();
+
+  private final LongSupplier clock;
+  private final Map<K, Node<K, V>> data = new ConcurrentHashMap<>();
+  private volatile int idleTtls = DEFAULT_IDLE_TTLS;
+  // The segments and weights are only used while holding this lock
+  private final ReentrantLock lock = new ReentrantLock();
+  private volatile long maxEntries = DEFAULT_MAX_ENTRIES;
+  private volatile long maxWeight = DEFAULT_MAX_WEIGHT;
+  private final Owner owner;
+  private final LinkedHashMap<K, Node<K, V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<K, Node<K, V>> protectedSegment =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long protectedWeight;
+  private final Queue<Node<K, V>> reads = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger readsBuffered = new AtomicInteger();
+  private long totalWeight;
+
+  BoundedRecordMap(Owner owner) {
+    this(owner, System::nanoTime);
+  }
+
+  BoundedRecordMap(Owner owner, LongSupplier clock) {
+    this.owner = owner;
+    this.clock = clock;
+  }
+
+  /** Update the segments with a read of a record, if it has not been evicted */
+  private void applyRead(Node<K, V> node) {
+    if (probation.remove(node.key, node)) {
+      // Used a second time, so promote it
+      protectedSegment.put(node.key, node);
+      protectedWeight += node.weight;
+      while (protectedSegment.size() > 1
+          && (protectedSegment.size() > maxEntries / 5 * 4
+              || protectedWeight > maxWeight / 5 * 4)) {
+        final Iterator<Map.Entry<K, Node<K, V>>> iterator = protectedSegment.entrySet().iterator();
+        final Map.Entry<K, Node<K, V>> eldest = iterator.next();
+        iterator.remove();
+        protectedWeight -= eldest.getValue().weight;
+        probation.put(eldest.getKey(), eldest.getValue());
+      }
+    } else if (protectedSegment.get(node.key) != node) {
+      // It was evicted after it was read
+      return;
+    }
+    updateWeight(node, true);
+  }
+
+  /** Apply any buffered reads and evict records that are over the limits */
+  void cleanUp() {
+    lock.lock();
+    try {
+      drainReads();
+      evict(null, clock.getAsLong());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void drainReads() {
+    Node<K, V> node;
+    while ((node = reads.poll()) != null) {
+      readsBuffered.decrementAndGet();
+      applyRead(node);
+    }
+  }
+
+  private void evict(K current, long now) {
+    final int idleTtls = this.idleTtls;
+    if (idleTtls > 0) {
+      final long cutoff = now - TimeUnit.MINUTES.toNanos(Math.max(1, owner.ttl()) * idleTtls);
+      evictIdle(probation, current, cutoff);
+      evictIdle(protectedSegment, current, cutoff);
+    }
+    while (probation.size() + protectedSegment.size() > maxEntries || totalWeight > maxWeight) {
+      LinkedHashMap<K, Node<K, V>> segment = probation;
+      K victim = eldest(probation, current);
+      if (victim == null) {
+        segment = protectedSegment;
+        victim = eldest(protectedSegment, current);
+      }
+      if (victim == null) {
+        // The only record left is the one being used; keep it even if it is too heavy
+        break;
+      }
+      removed(segment, segment.remove(victim));
+      evictions.labels(owner.name(), "size").inc();
+    }
+    totalWeightGauge.labels(owner.name()).set(totalWeight);
+  }
+
+  /** Find the least recently used key in a segment, other than the one currently being used */
+  private K eldest(LinkedHashMap<K, Node<K, V>> segment, K current) {
+    // Iterating does not change the access order
+    for (final K key : segment.keySet()) {
+      if (!key.equals(current)) {
+        return key;
+      }
+    }
+    return null;
+  }
+
+  private void evictIdle(LinkedHashMap<K, Node<K, V>> segment, K current, long cutoff) {
+    // Segments are in access order, so the idle records are all at the start
+    final Iterator<Map.Entry<K, Node<K, V>>> iterator = segment.entrySet().iterator();
+    while (iterator.hasNext()) {
+      final Map.Entry<K, Node<K, V>> entry = iterator.next();
+      if (entry.getValue().lastAccess - cutoff >= 0 || entry.getKey().equals(current)) {
+        break;
+      }
+      iterator.remove();
+      removed(segment, entry.getValue());
+      evictions.labels(owner.name(), "idle").inc();
+    }
+  }
+
+  /**
+   * Get the record for a key, creating it if it does not exist
+   *
+   * @param key the key to find
+   * @param create a function to create a new record for a key
+   */
+  public Record<V> get(K key, Function<? super K, ? extends Record<V>> create) {
+    final long now = clock.getAsLong();
+    Node<K, V> node = data.get(key);
+    if (node != null) {
+      node.lastAccess = now;
+      hits.labels(owner.name()).inc();
+      if (readsBuffered.incrementAndGet() > READ_BUFFER_SIZE) {
+        readsBuffered.decrementAndGet();
+      } else {
+        reads.add(node);
+      }
+      if (readsBuffered.get() >= DRAIN_THRESHOLD && lock.tryLock()) {
+        try {
+          drainReads();
+          evict(null, now);
+        } finally {
+          lock.unlock();
+        }
+      }
+      return node.record;
+    }
+    lock.lock();
+    try {
+      node = data.get(key);
+      if (node == null) {
+        node = new Node<>(key, create.apply(key));
+        node.lastAccess = now;
+        data.put(key, node);
+        probation.put(key, node);
+        misses.labels(owner.name()).inc();
+        updateWeight(node, false);
+      } else {
+        // Another thread created it while we were waiting for the lock
+        node.lastAccess = now;
+        hits.labels(owner.name()).inc();
+        applyRead(node);
+      }
+      drainReads();
+      evict(key, now);
+      return node.record;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the record for a key, if it exists, without counting it as used
+   *
+   * @param key the key to find
+   */
+  public Optional<Record<V>> getIfPresent(K key) {
+    return Optional.ofNullable(data.get(key)).map(node -> node.record);
+  }
+
+  /**
+   * Set the number of TTLs a record may go unused before being evicted
+   *
+   * @param idleTtls the number of TTLs; zero to never evict unused records
+   */
+  public void idleTtls(int idleTtls) {
+    this.idleTtls = idleTtls;
+  }
+
+  /** Take a copy of the records, since they may be evicted while being processed */
+  @Override
+  public Iterator<Map.Entry<K, Record<V>>> iterator() {
+    final List<Map.Entry<K, Record<V>>> entries = new ArrayList<>(data.size());
+    for (final Node<K, V> node : data.values()) {
+      entries.add(new AbstractMap.SimpleImmutableEntry<>(node.key, node.record));
+    }
+    return entries.iterator();
+  }
+
+  /**
+   * Set the maximum number of records to keep
+   *
+   * <p>The limit is enforced the next time the cache is used.
+   */
+  public void maxEntries(long maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Set the maximum total size of the collections stored in the records to keep
+   *
+   * <p>The limit is enforced the next time the cache is used.
+   */
+  public void maxWeight(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  private void removed(LinkedHashMap<K, Node<K, V>> segment, Node<K, V> node) {
+    data.remove(node.key, node);
+    totalWeight -= node.weight;
+    if (segment == protectedSegment) {
+      protectedWeight -= node.weight;
+    }
+  }
+
+  public int size() {
+    return data.size();
+  }
+
+  private void updateWeight(Node<K, V> node, boolean isProtected) {
+    final long weight = node.record.collectionSize();
+    totalWeight += weight - node.weight;
+    if (isProtected) {
+      protectedWeight += weight - node.weight;
+    }
+    node.weight = weight;
+  }
+}
@@ -14,6 +14,10 @@ import java.util.stream.Stream;
  * Store data that must be generated/fetched remotely and cache the results for a set period of
  * time.
  *
+ * <p>Items that are not used for several TTLs are removed and the number of items can be limited;
+ * when the cache is full, items that have only been used once are removed before items that are
+ * used repeatedly.
+ *
  * @param <K> the keys to use to lookup data in the cache
  * @param <V> the cached values
  */
@@ -64,7 +68,8 @@ public abstract class KeyValueCache<K, I, V> implements Owner, Iterable<Map.Entr
   private long maxCount = 0;
   private final String name;
   private final RecordFactory<I, V> recordFactory;
-  private final Map<K, Record<V>> records = new ConcurrentHashMap<>();
+  private int refreshConcurrency = RefreshAheadRecord.DEFAULT_CONCURRENCY;
+  private final BoundedRecordMap<K, V> records = new BoundedRecordMap<>(this);
   private int ttl;
 
   /**
@@ -100,8 +105,7 @@ public abstract class KeyValueCache<K, I, V> implements Owner, Iterable<Map.Entr
    *     is in an error state
    */
   public final V get(K key) {
-    final Record<V> record =
-        records.computeIfAbsent(key, k -> recordFactory.create(new KeyValueUpdater(k)));
+    final Record<V> record = records.get(key, k -> recordFactory.create(new KeyValueUpdater(k)));
     maxCount = Math.max(maxCount, record.collectionSize());
     innerCount.labels(name).set(maxCount);
     count.labels(name).set(records.size());
@@ -115,26 +119,41 @@ public abstract class KeyValueCache<K, I, V> implements Owner, Iterable<Map.Entr
    * @return the last value that was fetched
    */
   public final V getStale(K key) {
-    final Record<V> record =
-        records.computeIfAbsent(key, k -> recordFactory.create(new KeyValueUpdater(k)));
+    final Record<V> record = records.get(key, k -> recordFactory.create(new KeyValueUpdater(k)));
     return record.readStale();
   }
 
   public final void invalidate(K key) {
-    final Record<V> record = records.get(key);
-    if (record != null) {
-      record.invalidate();
-    }
+    records.getIfPresent(key).ifPresent(Record::invalidate);
   }
 
   public void invalidateAll() {
     maxCount = 0;
     innerCount.labels(name).set(maxCount);
-    records.values().forEach(Record::invalidate);
+    records.forEach(entry -> entry.getValue().invalidate());
   }
 
   public final Iterator<Map.Entry<K, Record<V>>> iterator() {
-    return records.entrySet().iterator();
+    return records.iterator();
+  }
+
+  /**
+   * Set the number of TTLs an item may go unused before being removed from the cache
+   *
+   * @param idleTtls the number of TTLs; zero to keep unused items until the cache is full
+   */
+  public final void idleTtls(int idleTtls) {
+    records.idleTtls(idleTtls);
+  }
+
+  /** Set the maximum number of items to keep in the cache */
+  public final void maxEntries(long maxEntries) {
+    records.maxEntries(maxEntries);
+  }
+
+  /** Set the maximum total size of the collections to keep in the cache */
+  public final void maxWeight(long maxWeight) {
+    records.maxWeight(maxWeight);
   }
 
   @Override
@@ -142,6 +161,22 @@ public abstract class KeyValueCache<K, I, V> implements Owner, Iterable<Map.Entr
     return name;
   }
 
+  @Override
+  public final int refreshConcurrency() {
+    return refreshConcurrency;
+  }
+
+  /**
+   * Set the number of items that may be refreshed in the background at once
+   *
+   * <p>This only applies to items stored in a {@link RefreshAheadRecord}.
+   *
+   * @param refreshConcurrency the number of items; zero to refresh items when they are read
+   */
+  public final void refreshConcurrency(int refreshConcurrency) {
+    this.refreshConcurrency = refreshConcurrency;
+  }
+
   @Override
   public final long ttl() {
     return ttl;
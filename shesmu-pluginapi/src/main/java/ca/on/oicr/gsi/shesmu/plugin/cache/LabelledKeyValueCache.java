@@ -14,6 +14,10 @@ import java.util.stream.Stream;
  * Store data that must be generated/fetched remotely and cache the results for a set period of
  * time.
  *
+ * <p>Items that are not used for several TTLs are removed and the number of items can be limited;
+ * when the cache is full, items that have only been used once are removed before items that are
+ * used repeatedly.
+ *
  * @param <K> the keys to use to lookup data in the cache
  * @param <L> the "name" associated with a key; this allows a key's lifecycle to be different from
  *     its data's
@@ -70,7 +74,8 @@ public abstract class LabelledKeyValueCache<K, L, I, V>
   private final String name;
 
   private final RecordFactory<I, V> recordCtor;
-  private final Map<L, Record<V>> records = new ConcurrentHashMap<>();
+  private int refreshConcurrency = RefreshAheadRecord.DEFAULT_CONCURRENCY;
+  private final BoundedRecordMap<L, V> records = new BoundedRecordMap<>(this);
   private int ttl;
 
   /**
@@ -107,7 +112,7 @@ public abstract class LabelledKeyValueCache<K, L, I, V>
    */
   public final V get(K key) {
     final Record<V> record =
-        records.computeIfAbsent(
+        records.get(
             label(key), label -> recordCtor.create(new LabelledKeyValueUpdater(key, label)));
     maxCount = Math.max(maxCount, record.collectionSize());
     innerCount.labels(name).set(maxCount);
@@ -122,36 +127,68 @@ public abstract class LabelledKeyValueCache<K, L, I, V>
    */
   public final V getStale(K key) {
     final Record<V> record =
-        records.computeIfAbsent(
+        records.get(
             label(key), label -> recordCtor.create(new LabelledKeyValueUpdater(key, label)));
     return record.readStale();
   }
 
   public final void invalidate(K key) {
-    final Record<V> record = records.get(label(key));
-    if (record != null) {
-      record.invalidate();
-    }
+    records.getIfPresent(label(key)).ifPresent(Record::invalidate);
   }
 
   public void invalidateAll() {
     maxCount = 0;
     innerCount.labels(name).set(maxCount);
-    records.values().forEach(Record::invalidate);
+    records.forEach(entry -> entry.getValue().invalidate());
   }
 
   public final Iterator<Map.Entry<L, Record<V>>> iterator() {
-    return records.entrySet().iterator();
+    return records.iterator();
   }
 
   /** The the fixed label associated with the specified key */
   protected abstract L label(K key);
 
+  /**
+   * Set the number of TTLs an item may go unused before being removed from the cache
+   *
+   * @param idleTtls the number of TTLs; zero to keep unused items until the cache is full
+   */
+  public final void idleTtls(int idleTtls) {
+    records.idleTtls(idleTtls);
+  }
+
+  /** Set the maximum number of items to keep in the cache */
+  public final void maxEntries(long maxEntries) {
+    records.maxEntries(maxEntries);
+  }
+
+  /** Set the maximum total size of the collections to keep in the cache */
+  public final void maxWeight(long maxWeight) {
+    records.maxWeight(maxWeight);
+  }
+
   @Override
   public final String name() {
     return name;
   }
 
+  @Override
+  public final int refreshConcurrency() {
+    return refreshConcurrency;
+  }
+
+  /**
+   * Set the number of items that may be refreshed in the background at once
+   *
+   * <p>This only applies to items stored in a {@link RefreshAheadRecord}.
+   *
+   * @param refreshConcurrency the number of items; zero to refresh items when they are read
+   */
+  public final void refreshConcurrency(int refreshConcurrency) {
+    this.refreshConcurrency = refreshConcurrency;
+  }
+
   @Override
   public final long ttl() {
     return ttl;
@@ -1,21 +1,103 @@
 package ca.on.oicr.gsi.shesmu.plugin.cache;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Stores an incrementally appending list of items. When new items are provided, old ones with
  * matching IDs are replaced
  *
+ * <p>The items are stored in buckets by ID and each update only copies the buckets that contain the
+ * new items, so the cost of an update depends on how many items changed rather than how many are
+ * stored. Buckets are never modified once stored, so readers can use the old items while an update
+ * is in progress.
+ *
  * @param <V> the type of the items
  * @param <I> the type of the ids
  */
-public final class MergingRecord<V, I> extends BaseRecord<Stream<V>, List<V>> {
+public final class MergingRecord<V, I> extends BaseRecord<Stream<V>, MergingRecord.Snapshot<I, V>> {
+  /** An immutable set of items, in buckets by ID */
+  static final class Snapshot<I, V> {
+    /** The number of items a bucket should hold, on average */
+    private static final int BUCKET_SIZE = 64;
+
+    private static final Snapshot<?, ?> EMPTY =
+        new Snapshot<>(Collections.singletonList(Collections.emptyMap()), 0);
+
+    @SuppressWarnings("unchecked")
+    static <I, V> Snapshot<I, V> empty() {
+      return (Snapshot<I, V>) EMPTY;
+    }
+
+    private final List<Map<I, V>> buckets;
+    private final int size;
+
+    private Snapshot(List<Map<I, V>> buckets, int size) {
+      this.buckets = buckets;
+      this.size = size;
+    }
+
+    private int bucket(int bucketCount, I id) {
+      final int hash = id.hashCode();
+      return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % bucketCount;
+    }
+
+    /**
+     * Create a new snapshot containing these items and the new ones, replacing any with the same ID
+     */
+    private Snapshot<I, V> merge(Map<I, V> items) {
+      final int maxSize = size + items.size();
+      if (maxSize > buckets.size() * BUCKET_SIZE * 2) {
+        // There are too many items per bucket, so redistribute everything
+        final int bucketCount = Math.max(1, maxSize / BUCKET_SIZE);
+        final List<Map<I, V>> newBuckets = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+          newBuckets.add(new HashMap<>());
+        }
+        for (final Map<I, V> bucket : buckets) {
+          for (final Map.Entry<I, V> entry : bucket.entrySet()) {
+            newBuckets
+                .get(bucket(bucketCount, entry.getKey()))
+                .put(entry.getKey(), entry.getValue());
+          }
+        }
+        int newSize = size;
+        for (final Map.Entry<I, V> entry : items.entrySet()) {
+          if (newBuckets
+                  .get(bucket(bucketCount, entry.getKey()))
+                  .put(entry.getKey(), entry.getValue())
+              == null) {
+            newSize++;
+          }
+        }
+        return new Snapshot<>(newBuckets, newSize);
+      }
+      final List<Map<I, V>> newBuckets = new ArrayList<>(buckets);
+      final boolean[] copied = new boolean[buckets.size()];
+      int newSize = size;
+      for (final Map.Entry<I, V> entry : items.entrySet()) {
+        final int index = bucket(buckets.size(), entry.getKey());
+        if (!copied[index]) {
+          newBuckets.set(index, new HashMap<>(buckets.get(index)));
+          copied[index] = true;
+        }
+        if (newBuckets.get(index).put(entry.getKey(), entry.getValue()) == null) {
+          newSize++;
+        }
+      }
+      return new Snapshot<>(newBuckets, newSize);
+    }
+
+    private Stream<V> stream() {
+      return buckets.stream().flatMap(bucket -> bucket.values().stream());
+    }
+  }
 
   /** Merge records by the supplied id */
   public static <V, I> RecordFactory<Stream<V>, Stream<V>> by(Function<V, I> getId) {
@@ -25,32 +107,30 @@ public final class MergingRecord<V, I> extends BaseRecord<Stream<V>, List<V>> {
   private final Function<V, I> getId;
 
   public MergingRecord(Updater<Stream<V>> fetcher, Function<V, I> getId) {
-    super(fetcher, Collections.emptyList());
+    super(fetcher, Snapshot.empty());
     this.getId = getId;
   }
 
   @Override
-  protected int collectionSize(List<V> state) {
-    return state.size();
+  protected int collectionSize(Snapshot<I, V> state) {
+    return state.size;
   }
 
   @Override
-  protected Stream<V> unpack(List<V> state) {
+  protected Stream<V> unpack(Snapshot<I, V> state) {
     return state.stream();
   }
 
   @Override
-  protected List<V> update(List<V> oldstate, Instant fetchTime) throws Exception {
+  protected Snapshot<I, V> update(Snapshot<I, V> oldstate, Instant fetchTime) throws Exception {
     final Stream<V> stream = fetcher.update(fetchTime);
     if (stream == null) {
       return null;
     }
-    final List<V> buffer = stream.collect(Collectors.toList());
+    final Map<I, V> items = new HashMap<>();
+    stream.forEach(item -> items.put(getId.apply(item), item));
     stream.close();
-    final Set<I> newIds = buffer.stream().map(getId).collect(Collectors.toSet());
-    return Stream.concat(
-            oldstate.stream().filter(item -> !newIds.contains(getId.apply(item))), buffer.stream())
-        .collect(Collectors.toList());
+    return oldstate.merge(items);
   }
 
   @Override
@@ -5,6 +5,15 @@ public interface Owner {
   /** The name of the cache for use in monitoring */
   String name();
 
+  /**
+   * The number of records that may be refreshed in the background at once
+   *
+   * @see RefreshAheadRecord
+   */
+  default int refreshConcurrency() {
+    return RefreshAheadRecord.DEFAULT_CONCURRENCY;
+  }
+
   /** The time-to-live for a record in cache */
   long ttl();
 }
@@ -0,0 +1,229 @@
+package ca.on.oicr.gsi.shesmu.plugin.cache;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Create a record that is refreshed in the background, so readers never wait for a fetch
+ *
+ * <p>The first fetch, and the first fetch after the record is invalidated, happen on the reader's
+ * thread, as usual. After that, when the record expires, it is refreshed on a shared pool of
+ * threads and readers get the last good value immediately. The record keeps being refreshed as it
+ * expires as long as it is read between refreshes; once it goes unread, it is left to expire and
+ * the next read starts a background refresh.
+ *
+ * <p>The number of records from the same cache that can be refreshed at once is limited by {@link
+ * Owner#refreshConcurrency()}; records waiting for their turn continue to serve their old value. If
+ * the limit is zero, the record is refreshed on the reader's thread.
+ *
+ * <p>This should be the outermost record type, so that any limits applied by the inner records,
+ * such as {@link TimeoutRecord}, also apply to background refreshes.
+ *
+ * @param <V> the type of the data in from the record
+ */
+public class RefreshAheadRecord<V> implements Record<V> {
+  /** The records from one cache that are waiting to be refreshed */
+  private static final class RefreshQueue {
+    private int running;
+    private final Queue<RefreshAheadRecord<?>> waiting = new ArrayDeque<>();
+
+    private synchronized void finished(Owner owner) {
+      running--;
+      start(owner);
+    }
+
+    private void start(Owner owner) {
+      while (!waiting.isEmpty() && running < Math.max(1, owner.refreshConcurrency())) {
+        running++;
+        FETCHERS.execute(waiting.poll()::fetch);
+      }
+      refreshWaiting.labels(owner.name()).set(waiting.size());
+    }
+
+    private synchronized void submit(RefreshAheadRecord<?> record) {
+      final Owner owner = record.updater().owner();
+      waiting.add(record);
+      start(owner);
+    }
+  }
+
+  /**
+   * The number of records from a cache that may be refreshed at once, if the cache does not set it
+   *
+   * <p>This is read from the <tt>SHESMU_CACHE_REFRESH_CONCURRENCY</tt> environment variable; zero
+   * refreshes records on the reader's thread.
+   */
+  static final int DEFAULT_CONCURRENCY =
+      Optional.ofNullable(System.getenv("SHESMU_CACHE_REFRESH_CONCURRENCY"))
+          .map(Integer::parseInt)
+          .orElse(2);
+
+  private static final ExecutorService FETCHERS =
+      Executors.newFixedThreadPool(
+          Optional.ofNullable(System.getenv("SHESMU_CACHE_REFRESH_THREADS"))
+              .map(Integer::parseInt)
+              .orElse(8),
+          runnable -> {
+            final Thread thread = new Thread(runnable, "cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private static final Map<String, RefreshQueue> QUEUES = new ConcurrentHashMap<>();
+  private static final ScheduledExecutorService SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            final Thread thread = new Thread(runnable, "cache-refresh-scheduler");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private static final Gauge refreshLag =
+      Gauge.build(
+              "shesmu_cache_refresh_lag",
+              "The number of seconds between a record expiring and its background refresh finishing, for the last refresh.")
+          .labelNames("name")
+          .register();
+  private static final Gauge refreshWaiting =
+      Gauge.build(
+              "shesmu_cache_refresh_waiting",
+              "The number of expired records waiting for a background refresh.")
+          .labelNames("name")
+          .register();
+  private static final Counter staleReads =
+      Counter.build(
+              "shesmu_cache_stale_reads",
+              "The number of times an expired value was read while waiting for a background refresh.")
+          .labelNames("name")
+          .register();
+
+  /**
+   * Build a new cache record type that is refreshed in the background
+   *
+   * @param constructor the record type to refresh
+   */
+  public static <I, V> RecordFactory<I, V> wrap(RecordFactory<I, V> constructor) {
+    return fetcher -> new RefreshAheadRecord<>(constructor.create(fetcher));
+  }
+
+  private final Record<V> inner;
+  private boolean read;
+  private boolean scheduled;
+  private boolean synchronous = true;
+
+  public RefreshAheadRecord(Record<V> inner) {
+    this.inner = inner;
+  }
+
+  @Override
+  public int collectionSize() {
+    return inner.collectionSize();
+  }
+
+  /** The time when the inner record will consider itself due for a refresh */
+  private Instant expiry() {
+    // Records only refresh once more than the TTL, in whole minutes, has passed
+    return inner.lastUpdate().plus(inner.updater().owner().ttl() + 1, ChronoUnit.MINUTES);
+  }
+
+  private void fetch() {
+    final Owner owner = updater().owner();
+    try {
+      final Instant expiry = expiry();
+      inner.refresh();
+      if (inner.lastUpdate().isAfter(expiry)) {
+        refreshLag
+            .labels(owner.name())
+            .set(Math.max(0, Duration.between(expiry, Instant.now()).getSeconds()));
+      }
+    } catch (final Exception e) {
+      e.printStackTrace();
+    } finally {
+      synchronized (this) {
+        scheduled = false;
+        if (read) {
+          read = false;
+          // If the refresh failed, the record is still expired, so wait before trying again
+          schedule(Duration.ofMinutes(1));
+        }
+      }
+      QUEUES.get(owner.name()).finished(owner);
+    }
+  }
+
+  @Override
+  public synchronized void invalidate() {
+    synchronous = true;
+    inner.invalidate();
+  }
+
+  @Override
+  public Instant lastUpdate() {
+    return inner.lastUpdate();
+  }
+
+  @Override
+  public V readStale() {
+    return inner.readStale();
+  }
+
+  @Override
+  public V refresh() {
+    final boolean inline;
+    synchronized (this) {
+      inline = synchronous || updater().owner().refreshConcurrency() < 1;
+      read = true;
+      if (!inline) {
+        schedule(Duration.ZERO);
+      }
+    }
+    if (inline) {
+      final V result = inner.refresh();
+      synchronized (this) {
+        synchronous = false;
+        if (updater().owner().refreshConcurrency() > 0) {
+          schedule(Duration.ZERO);
+        }
+      }
+      return result;
+    }
+    if (!expiry().isAfter(Instant.now())) {
+      staleReads.labels(updater().owner().name()).inc();
+    }
+    return inner.readStale();
+  }
+
+  /**
+   * Queue a background refresh for when the record expires, if one is not already queued
+   *
+   * @param minimumDelay the shortest time to wait, even if the record has already expired
+   */
+  private void schedule(Duration minimumDelay) {
+    if (scheduled) {
+      return;
+    }
+    scheduled = true;
+    final long delay =
+        Math.max(minimumDelay.toMillis(), Duration.between(Instant.now(), expiry()).toMillis());
+    SCHEDULER.schedule(
+        () ->
+            QUEUES.computeIfAbsent(updater().owner().name(), k -> new RefreshQueue()).submit(this),
+        delay,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public Updater<?> updater() {
+    return inner.updater();
+  }
+}
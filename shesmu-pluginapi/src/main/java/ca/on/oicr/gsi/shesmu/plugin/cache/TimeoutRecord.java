@@ -1,11 +1,12 @@
 package ca.on.oicr.gsi.shesmu.plugin.cache;
 
-import ca.on.oicr.gsi.Pair;
 import io.prometheus.client.Gauge;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.*;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -14,9 +15,59 @@ import java.util.stream.Collectors;
  * @param <V> the type of the data in from the record
  */
 public class TimeoutRecord<V> implements Record<V> {
-  private static final Thread CLEANUP;
-  private static final Semaphore LOCK = new Semaphore(1);
-  private static final Map<Thread, Pair<Instant, TimeoutRecord<?>>> TIMEOUTS = new HashMap<>();
+  /**
+   * A deadline for one refresh
+   *
+   * <p>Either the refresh finishes and cancels the deadline or the deadline expires and interrupts
+   * the refresh, but never both.
+   */
+  private static final class Deadline {
+    private final long deadline;
+    private final TimeoutRecord<?> record;
+    private final AtomicBoolean resolved = new AtomicBoolean();
+    private final Thread thread = Thread.currentThread();
+
+    private Deadline(TimeoutRecord<?> record) {
+      this.record = record;
+      deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(record.maxRuntime);
+    }
+
+    /**
+     * Stop the deadline from interrupting the refresh
+     *
+     * @return false if the deadline has already interrupted the refresh
+     */
+    private boolean cancel() {
+      return resolved.compareAndSet(false, true);
+    }
+
+    private void expire() {
+      if (!resolved.compareAndSet(false, true)) {
+        return;
+      }
+      final Updater<?> updater = record.inner.updater();
+      deadlineExceeded.labels(updater.owner().name()).inc();
+      interruptLateness.labels(updater.owner().name()).set((System.nanoTime() - deadline) / 1e9);
+      System.err.println(
+          String.format(
+              "Cache deadline exceeded in cache %s for record identified by [%s]",
+              updater.owner().name(),
+              updater
+                  .identifiers()
+                  .map(p -> p.first() + " = " + p.second())
+                  .collect(Collectors.joining(", "))));
+      thread.interrupt();
+    }
+  }
+
+  private static final ScheduledThreadPoolExecutor DEADLINES =
+      new ScheduledThreadPoolExecutor(
+          1,
+          runnable -> {
+            final Thread thread = new Thread(runnable, "cache-timeout-manager");
+            thread.setDaemon(true);
+            return thread;
+          });
   private static final Gauge currentTimeout =
       Gauge.build("shesmu_cache_timeout_limit", "The timeout of this cache, in minutes.")
           .labelNames("cache")
@@ -27,49 +78,19 @@ public class TimeoutRecord<V> implements Record<V> {
               "The number of times the deadline for this cache has been hit.")
           .labelNames("cache")
           .register();
+  private static final Gauge interruptLateness =
+      Gauge.build(
+              "shesmu_cache_timeout_lateness",
+              "The number of seconds after the deadline that the last refresh to exceed it was interrupted.")
+          .labelNames("cache")
+          .register();
 
   static {
-    CLEANUP =
-        new Thread("cache-timeout-manager") {
-          @Override
-          public void run() {
-            while (true) {
-              final Instant now = Instant.now();
-              LOCK.acquireUninterruptibly();
-              for (final Thread deadThread :
-                  TIMEOUTS
-                      .entrySet()
-                      .stream()
-                      .filter(e -> e.getValue().first().isBefore(now))
-                      .peek(
-                          e -> {
-                            final Updater<?> updater = e.getValue().second().inner.updater();
-                            deadlineExceeded.labels(updater.owner().name()).inc();
-                            System.err.println(
-                                String.format(
-                                    "Cache deadline exceeded in cache %s for record identified by [%s]",
-                                    updater.owner().name(),
-                                    updater
-                                        .identifiers()
-                                        .map(p -> p.first() + " = " + p.second())
-                                        .collect(Collectors.joining(", "))));
-                          })
-                      .map(Map.Entry::getKey)
-                      .collect(Collectors.toList())) {
-                TIMEOUTS.remove(deadThread);
-                deadThread.interrupt();
-              }
-              LOCK.release();
-              try {
-                Thread.sleep(60_000);
-              } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-              }
-            }
-          }
-        };
-    CLEANUP.start();
+    // Finished refreshes cancel their deadlines, so take them out of the queue rather than holding
+    // them until they would have expired
+    DEADLINES.setRemoveOnCancelPolicy(true);
   }
+
   /**
    * Build a new cache record type that limits how long a cache refresh can take
    *
@@ -113,19 +134,23 @@ public class TimeoutRecord<V> implements Record<V> {
 
   @Override
   public V refresh() {
+    if (Duration.between(inner.lastUpdate(), Instant.now()).toMinutes()
+        <= inner.updater().owner().ttl()) {
+      // The record is fresh, so it will not be fetched and doesn't need a deadline
+      return inner.refresh();
+    }
+    final Deadline deadline = new Deadline(this);
+    final ScheduledFuture<?> expiry =
+        DEADLINES.schedule(deadline::expire, maxRuntime, TimeUnit.MINUTES);
     try {
-      LOCK.acquire();
-      TIMEOUTS.put(
-          Thread.currentThread(),
-          new Pair<>(Instant.now().plus(maxRuntime, ChronoUnit.MINUTES), this));
-      LOCK.release();
-      final V result = inner.refresh();
-      LOCK.acquire();
-      TIMEOUTS.remove(Thread.currentThread());
-      LOCK.release();
-      return result;
-    } catch (InterruptedException e) {
-      return null;
+      return inner.refresh();
+    } finally {
+      expiry.cancel(false);
+      if (!deadline.cancel()) {
+        // The deadline expired just as the refresh finished; don't leave the interrupt for the
+        // caller to trip over
+        Thread.interrupted();
+      }
     }
   }
 
@@ -32,6 +32,7 @@ public abstract class ValueCache<I, V> implements Owner {
   }
 
   private final String name;
+  private int refreshConcurrency = RefreshAheadRecord.DEFAULT_CONCURRENCY;
 
   private int ttl;
 
@@ -115,6 +116,22 @@ public abstract class ValueCache<I, V> implements Owner {
     return name;
   }
 
+  @Override
+  public final int refreshConcurrency() {
+    return refreshConcurrency;
+  }
+
+  /**
+   * Set the number of items that may be refreshed in the background at once
+   *
+   * <p>This only applies to items stored in a {@link RefreshAheadRecord}.
+   *
+   * @param refreshConcurrency the number of items; zero to refresh items when they are read
+   */
+  public final void refreshConcurrency(int refreshConcurrency) {
+    this.refreshConcurrency = refreshConcurrency;
+  }
+
   @Override
   public final long ttl() {
     return ttl;
@@ -0,0 +1,171 @@
+package ca.on.oicr.gsi.shesmu.plugin.cache;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BoundedRecordMapTest {
+  private static final class SizedRecord implements Record<String> {
+    private int size;
+
+    private SizedRecord(int size) {
+      this.size = size;
+    }
+
+    @Override
+    public int collectionSize() {
+      return size;
+    }
+
+    @Override
+    public void invalidate() {
+      // Do nothing
+    }
+
+    @Override
+    public Instant lastUpdate() {
+      return Instant.EPOCH;
+    }
+
+    @Override
+    public String readStale() {
+      return null;
+    }
+
+    @Override
+    public String refresh() {
+      return null;
+    }
+
+    @Override
+    public Updater<?> updater() {
+      return null;
+    }
+  }
+
+  private static final Owner OWNER =
+      new Owner() {
+        @Override
+        public String name() {
+          return "bounded_record_map_test";
+        }
+
+        @Override
+        public long ttl() {
+          return 1;
+        }
+      };
+
+  private final AtomicLong now = new AtomicLong();
+  private final BoundedRecordMap<String, String> records = new BoundedRecordMap<>(OWNER, now::get);
+
+  private SizedRecord get(String key) {
+    return get(key, 1);
+  }
+
+  private SizedRecord get(String key, int size) {
+    return (SizedRecord) records.get(key, k -> new SizedRecord(size));
+  }
+
+  private void minutes(long minutes) {
+    now.addAndGet(TimeUnit.MINUTES.toNanos(minutes));
+  }
+
+  @Test
+  public void testEntryLimit() {
+    records.maxEntries(3);
+    get("a");
+    get("b");
+    get("c");
+    get("d");
+    Assert.assertEquals(3, records.size());
+    Assert.assertFalse(records.getIfPresent("a").isPresent());
+    Assert.assertTrue(records.getIfPresent("d").isPresent());
+  }
+
+  @Test
+  public void testExistingRecordReturned() {
+    final SizedRecord first = get("a");
+    Assert.assertSame(first, get("a"));
+    Assert.assertSame(first, records.getIfPresent("a").get());
+    Assert.assertEquals(1, records.size());
+  }
+
+  @Test
+  public void testIdle() {
+    records.idleTtls(2);
+    get("a");
+    minutes(1);
+    get("b");
+    minutes(1);
+    get("a");
+    records.cleanUp();
+    minutes(2);
+    // b was last used 3 minutes ago, which is more than two TTLs; a was used 2 minutes ago
+    get("c");
+    Assert.assertTrue(records.getIfPresent("a").isPresent());
+    Assert.assertFalse(records.getIfPresent("b").isPresent());
+    Assert.assertTrue(records.getIfPresent("c").isPresent());
+
+    minutes(10);
+    records.cleanUp();
+    Assert.assertEquals(0, records.size());
+  }
+
+  @Test
+  public void testIdleDisabled() {
+    records.idleTtls(0);
+    get("a");
+    minutes(1000);
+    records.cleanUp();
+    Assert.assertTrue(records.getIfPresent("a").isPresent());
+  }
+
+  @Test
+  public void testReusedRecordsProtected() {
+    records.maxEntries(5);
+    get("a");
+    get("a");
+    records.cleanUp();
+    // A burst of new keys should push out each other rather than the key that was used twice
+    for (final String key : new String[] {"b", "c", "d", "e", "f", "g"}) {
+      get(key);
+    }
+    Assert.assertEquals(5, records.size());
+    Assert.assertTrue(records.getIfPresent("a").isPresent());
+    Assert.assertFalse(records.getIfPresent("b").isPresent());
+    Assert.assertFalse(records.getIfPresent("c").isPresent());
+    Assert.assertTrue(records.getIfPresent("g").isPresent());
+  }
+
+  @Test
+  public void testWeightGrowth() {
+    records.maxWeight(10);
+    get("a", 4);
+    final SizedRecord b = get("b", 4);
+    Assert.assertEquals(2, records.size());
+    // The weight of a record is checked again when it is used
+    b.size = 8;
+    get("b");
+    records.cleanUp();
+    Assert.assertFalse(records.getIfPresent("a").isPresent());
+    Assert.assertTrue(records.getIfPresent("b").isPresent());
+  }
+
+  @Test
+  public void testWeightLimit() {
+    records.maxWeight(10);
+    get("a", 4);
+    get("b", 4);
+    get("c", 4);
+    Assert.assertEquals(2, records.size());
+    Assert.assertFalse(records.getIfPresent("a").isPresent());
+
+    // A record that is too heavy by itself is kept while it is being used
+    get("d", 20);
+    Assert.assertEquals(1, records.size());
+    Assert.assertTrue(records.getIfPresent("d").isPresent());
+  }
+}
@@ -0,0 +1,141 @@
+package ca.on.oicr.gsi.shesmu.plugin.cache;
+
+import ca.on.oicr.gsi.Pair;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MergingRecordTest {
+  private static final class Item {
+    private final int id;
+    private final int version;
+
+    private Item(int id, int version) {
+      this.id = id;
+      this.version = version;
+    }
+  }
+
+  private final Deque<List<Item>> batches = new ArrayDeque<>();
+  private final Map<Integer, Integer> expected = new TreeMap<>();
+  private final MergingRecord<Item, Integer> record =
+      new MergingRecord<>(
+          new Updater<Stream<Item>>() {
+            @Override
+            public Stream<Pair<String, String>> identifiers() {
+              return Stream.empty();
+            }
+
+            @Override
+            public Owner owner() {
+              return new Owner() {
+                @Override
+                public String name() {
+                  return "merging_record_test";
+                }
+
+                @Override
+                public long ttl() {
+                  return 10;
+                }
+              };
+            }
+
+            @Override
+            public Stream<Item> update(Instant lastModifed) {
+              final List<Item> batch = batches.poll();
+              return batch == null ? null : batch.stream();
+            }
+          },
+          item -> item.id);
+
+  private void check() {
+    Assert.assertEquals(expected, contents(record.readStale()));
+    Assert.assertEquals(expected.size(), record.collectionSize());
+  }
+
+  private static Map<Integer, Integer> contents(Stream<Item> items) {
+    final Map<Integer, Integer> contents = new TreeMap<>();
+    items.forEach(
+        item -> Assert.assertNull("Duplicate ID " + item.id, contents.put(item.id, item.version)));
+    return contents;
+  }
+
+  private void merge(int start, int end, int version) {
+    merge(IntStream.range(start, end).mapToObj(id -> new Item(id, version)));
+  }
+
+  private void merge(Stream<Item> items) {
+    final List<Item> batch = items.collect(Collectors.toList());
+    for (final Item item : batch) {
+      expected.put(item.id, item.version);
+    }
+    batches.add(batch);
+    record.invalidate();
+    record.refresh();
+  }
+
+  @Test
+  public void testFailedUpdateKeepsItems() {
+    merge(0, 10, 0);
+    record.invalidate();
+    // The updater has nothing queued, so it returns null, which is a failure
+    record.refresh();
+    check();
+  }
+
+  @Test
+  public void testGrowth() {
+    merge(0, 10, 0);
+    check();
+    // Enough to force the items to be redistributed into more buckets
+    merge(10, 200, 0);
+    check();
+    merge(200, 5000, 0);
+    check();
+    merge(Stream.empty());
+    check();
+  }
+
+  @Test
+  public void testOldReadersUnaffected() {
+    merge(0, 100, 0);
+    final Stream<Item> old = record.readStale();
+    merge(50, 150, 1);
+    merge(0, 1000, 2);
+    final Map<Integer, Integer> oldExpected = new TreeMap<>();
+    for (int i = 0; i < 100; i++) {
+      oldExpected.put(i, 0);
+    }
+    Assert.assertEquals(oldExpected, contents(old));
+    check();
+  }
+
+  @Test
+  public void testReplace() {
+    merge(0, 100, 0);
+    // Replace items in every bucket, alongside new ones
+    merge(90, 110, 1);
+    check();
+    // Replace while redistributing into more buckets; the old versions must not survive in the
+    // buckets they were moved out of
+    merge(0, 1000, 2);
+    check();
+    merge(Stream.of(new Item(3, 3), new Item(999, 3), new Item(5000, 3)));
+    check();
+  }
+
+  @Test
+  public void testReplaceWithinBatch() {
+    merge(Stream.of(new Item(1, 0), new Item(1, 1), new Item(2, 0)));
+    check();
+  }
+}
@@ -13,6 +13,7 @@ import ca.on.oicr.gsi.shesmu.compiler.description.Produces;
 import ca.on.oicr.gsi.shesmu.core.StandardDefinitions;
 import ca.on.oicr.gsi.shesmu.plugin.Parser;
 import ca.on.oicr.gsi.shesmu.plugin.SourceLocation;
+import ca.on.oicr.gsi.shesmu.plugin.Utils;
 import ca.on.oicr.gsi.shesmu.plugin.action.Action;
 import ca.on.oicr.gsi.shesmu.plugin.action.ActionCommand;
 import ca.on.oicr.gsi.shesmu.plugin.action.ActionCommand.Preference;
@@ -64,6 +65,9 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
@@ -76,6 +80,7 @@ import java.util.function.*;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
@@ -185,7 +190,7 @@ public final class Server implements ServerConfig, ActionServices {
       new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors());
   private final Map<String, FunctionRunner> functionRunners = new HashMap<>();
   private final Semaphore inputDownloadSemaphore =
-      new Semaphore(Math.min(Runtime.getRuntime().availableProcessors() / 2, 1));
+      new Semaphore(Math.max(Runtime.getRuntime().availableProcessors() / 2, 1));
   private final Map<String, String> jsonDumpers = new ConcurrentHashMap<>();
   private final MasterRunner master;
   private final ThreadLocal<Boolean> overloadState = ThreadLocal.withInitial(() -> false);
@@ -236,7 +241,7 @@ public final class Server implements ServerConfig, ActionServices {
     server.setExecutor(wwwExecutor);
     definitionRepository = DefinitionRepository.concat(new StandardDefinitions(), pluginManager);
     compiler = new CompiledGenerator(executor, definitionRepository);
-    processor = new ActionProcessor(localname(), pluginManager, this);
+    processor = new ActionProcessor(localname(), pluginManager, this, ActionStateStore.create());
     staticActions = new StaticActions(processor, definitionRepository);
     final InputSource inputSource =
         (format, readStale) ->
@@ -361,6 +366,7 @@ public final class Server implements ServerConfig, ActionServices {
                     .paths()
                     .forEach(path -> renderer.line("Data Directory", path.toString()));
                 compiler.errorHtml(renderer);
+                compiler.inputHtml(renderer);
               }
 
               @Override
@@ -2665,19 +2671,93 @@ public final class Server implements ServerConfig, ActionServices {
       try (OutputStream os = t.getResponseBody()) {}
       return;
     }
-    t.getResponseHeaders().set("Content-type", "application/json");
-    t.sendResponseHeaders(200, 0);
-    final JsonFactory jfactory = new JsonFactory();
-    try (OutputStream os = t.getResponseBody();
-        JsonGenerator jGenerator = jfactory.createGenerator(os, JsonEncoding.UTF8)) {
-      format.writeJson(jGenerator, inputSource, readStale);
-    } catch (final IOException e) {
-      e.printStackTrace();
+    try {
+      // Other Shesmu instances ask for the binary format, which is smaller and faster to parse;
+      // they also accept compressed responses, which is a big saving for large formats
+      final boolean smile =
+          requestHeaderContains(t, "Accept", AnnotatedInputFormatDefinition.SMILE_CONTENT_TYPE);
+      final boolean gzip = requestHeaderContains(t, "Accept-Encoding", "gzip");
+      final JsonFactory factory =
+          smile ? AnnotatedInputFormatDefinition.SMILE_FACTORY : new JsonFactory();
+      if (smile || t.getRequestHeaders().containsKey("If-None-Match")) {
+        // Clients that can keep the copy they have need an entity tag before the body, so the
+        // records are written to a buffer first while computing a digest of the bytes; other Shesmu
+        // instances always accept compressed responses, so the buffer is a compressed copy
+        final MessageDigest digest;
+        try {
+          digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+          throw new IllegalStateException(e);
+        }
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (OutputStream os =
+                new DigestOutputStream(
+                    gzip ? new GZIPOutputStream(buffer, 65536) : buffer, digest);
+            JsonGenerator jGenerator = factory.createGenerator(os, JsonEncoding.UTF8)) {
+          format.writeJson(jGenerator, inputSource.fetch(format.name(), readStale));
+        }
+        final String entityTag = "W/\"" + Utils.bytesToHex(digest.digest()) + "\"";
+        t.getResponseHeaders().set("ETag", entityTag);
+        if (requestHeaderMatchesEntityTag(t, entityTag)) {
+          t.sendResponseHeaders(304, -1);
+          try (OutputStream os = t.getResponseBody()) {}
+          return;
+        }
+        setInputDataHeaders(t, smile, gzip);
+        t.sendResponseHeaders(200, buffer.size());
+        try (OutputStream os = t.getResponseBody()) {
+          buffer.writeTo(os);
+        } catch (final IOException e) {
+          e.printStackTrace();
+        }
+        return;
+      }
+      setInputDataHeaders(t, smile, gzip);
+      t.sendResponseHeaders(200, 0);
+      try (OutputStream os =
+              gzip ? new GZIPOutputStream(t.getResponseBody(), 65536) : t.getResponseBody();
+          JsonGenerator jGenerator = factory.createGenerator(os, JsonEncoding.UTF8)) {
+        format.writeJson(jGenerator, inputSource.fetch(format.name(), readStale));
+      } catch (final IOException e) {
+        e.printStackTrace();
+      }
     } finally {
-      inputDownloadSemaphore.release();
+      if (!readStale) {
+        inputDownloadSemaphore.release();
+      }
+    }
+  }
+
+  private static void setInputDataHeaders(HttpExchange t, boolean smile, boolean gzip) {
+    t.getResponseHeaders()
+        .set(
+            "Content-type",
+            smile ? AnnotatedInputFormatDefinition.SMILE_CONTENT_TYPE : "application/json");
+    if (gzip) {
+      t.getResponseHeaders().set("Content-Encoding", "gzip");
     }
   }
 
+  private static boolean requestHeaderMatchesEntityTag(HttpExchange t, String entityTag) {
+    // Weak comparison is used, so a client that dropped the weak marker still matches
+    final String opaqueTag = entityTag.startsWith("W/") ? entityTag.substring(2) : entityTag;
+    return t.getRequestHeaders()
+        .getOrDefault("If-None-Match", Collections.emptyList())
+        .stream()
+        .flatMap(v -> Stream.of(v.split(",")))
+        .map(String::trim)
+        .anyMatch(
+            v -> v.equals("*") || (v.startsWith("W/") ? v.substring(2) : v).equals(opaqueTag));
+  }
+
+  private static boolean requestHeaderContains(HttpExchange t, String header, String value) {
+    return t.getRequestHeaders()
+        .getOrDefault(header, Collections.emptyList())
+        .stream()
+        .flatMap(v -> Stream.of(v.split(",")))
+        .anyMatch(v -> v.trim().startsWith(value));
+  }
+
   private void emergencyThrottle(boolean stopped) {
     this.emergencyStop = stopped;
     stopGauge.set(stopped ? 1 : 0);
@@ -37,6 +37,7 @@ public abstract class BaseOliveBuilder {
   private static final Type A_GAUGE_TYPE = Type.getType(Gauge.class);
   private static final Type A_GROUPER_TYPE = Type.getType(Grouper.class);
   protected static final Type A_INPUT_PROVIDER_TYPE = Type.getType(InputProvider.class);
+  private static final Type A_MAP_TYPE = Type.getType(Map.class);
   private static final Type A_OBJECTS_TYPE = Type.getType(Objects.class);
   private static final Type A_OBJECT_ARRAY_TYPE = Type.getType(Object[].class);
   protected static final Type A_OBJECT_TYPE = Type.getType(Object.class);
@@ -65,18 +66,22 @@ public abstract class BaseOliveBuilder {
   private static final Method METHOD_HASH_CODE = new Method("hashCode", INT_TYPE, new Type[] {});
   protected static final Method METHOD_INPUT_PROVIDER__FETCH =
       new Method("fetch", A_STREAM_TYPE, new Type[] {A_STRING_TYPE});
+  private static final Method METHOD_INPUT_PROVIDER__INDEX =
+      new Method("index", A_MAP_TYPE, new Type[] {A_STRING_TYPE, A_STRING_TYPE, A_FUNCTION_TYPE});
   private static final Method METHOD_LEFT_JOIN =
       new Method(
           "leftJoin",
           A_STREAM_TYPE,
           new Type[] {
             A_STREAM_TYPE,
-            A_STREAM_TYPE,
-            A_FUNCTION_TYPE,
+            A_MAP_TYPE,
             A_FUNCTION_TYPE,
             A_BIFUNCTION_TYPE,
             A_FUNCTION_TYPE,
-            A_BICONSUMER_TYPE
+            A_BICONSUMER_TYPE,
+            A_STRING_TYPE,
+            INT_TYPE,
+            INT_TYPE
           });
   private static final Method METHOD_MONITOR =
       new Method(
@@ -107,7 +112,13 @@ public abstract class BaseOliveBuilder {
           "join",
           A_STREAM_TYPE,
           new Type[] {
-            A_STREAM_TYPE, A_STREAM_TYPE, A_FUNCTION_TYPE, A_FUNCTION_TYPE, A_BIFUNCTION_TYPE
+            A_STREAM_TYPE,
+            A_MAP_TYPE,
+            A_FUNCTION_TYPE,
+            A_BIFUNCTION_TYPE,
+            A_STRING_TYPE,
+            INT_TYPE,
+            INT_TYPE
           });
   private static final Method METHOD_STREAM__FILTER =
       new Method("filter", A_STREAM_TYPE, new Type[] {A_PREDICATE_TYPE});
@@ -272,11 +283,18 @@ public abstract class BaseOliveBuilder {
         explodeLambda.renderer(oldType, this::emitSigner));
   }
 
+  /**
+   * Create a join clause in an olive
+   *
+   * @param innerKeyFingerprint the fingerprint of the inner key expression, if it has one; joins
+   *     with the same fingerprint, in any olive, can share the grouped inner input
+   */
   public final JoinBuilder join(
       int line,
       int column,
       InputFormatDefinition innerType,
       Imyhat keyType,
+      Optional<String> innerKeyFingerprint,
       LoadableValue... capturedVariables) {
     final String className = String.format("shesmu/dyn/Join %d:%d", line, column);
 
@@ -301,14 +319,14 @@ public abstract class BaseOliveBuilder {
 
     steps.add(
         renderer -> {
-          loadInputProvider(renderer.methodGen());
-          renderer.methodGen().push(innerType.name());
-          renderer.methodGen().invokeInterface(A_INPUT_PROVIDER_TYPE, METHOD_INPUT_PROVIDER__FETCH);
+          loadInputIndex(renderer, innerType, keyType, innerKeyFingerprint, innerKeyLambda);
 
           outerKeyLambda.push(renderer);
-          innerKeyLambda.push(renderer);
           LambdaBuilder.pushNew(
               renderer, LambdaBuilder.bifunction(newType, oldType, innerType.type()));
+          renderer.methodGen().push(owner.sourcePath());
+          renderer.methodGen().push(line);
+          renderer.methodGen().push(column);
 
           renderer.methodGen().invokeStatic(A_RUNTIME_SUPPORT_TYPE, METHOD_RUNTIME_SUPPORT__JOIN);
         });
@@ -319,11 +337,18 @@ public abstract class BaseOliveBuilder {
         owner, newType, oldType, innerType.type(), outerKeyMethodGen, innerKeyMethodGen);
   }
 
+  /**
+   * Create a left join clause in an olive
+   *
+   * @param innerKeyFingerprint the fingerprint of the inner key expression, if it has one; joins
+   *     with the same fingerprint, in any olive, can share the grouped inner input
+   */
   public final Pair<JoinBuilder, RegroupVariablesBuilder> leftJoin(
       int line,
       int column,
       InputFormatDefinition innerType,
       Imyhat keyType,
+      Optional<String> innerKeyFingerprint,
       BiConsumer<SignatureDefinition, Renderer> innerSigner,
       LoadableValue... capturedVariables) {
     final String joinedClassName =
@@ -364,16 +389,16 @@ public abstract class BaseOliveBuilder {
 
     steps.add(
         renderer -> {
-          loadInputProvider(renderer.methodGen());
-          renderer.methodGen().push(innerType.name());
-          renderer.methodGen().invokeInterface(A_INPUT_PROVIDER_TYPE, METHOD_INPUT_PROVIDER__FETCH);
+          loadInputIndex(renderer, innerType, keyType, innerKeyFingerprint, innerKeyLambda);
 
           outerKeyLambda.push(renderer);
-          innerKeyLambda.push(renderer);
           LambdaBuilder.pushNew(
               renderer, LambdaBuilder.bifunction(joinedType, oldType, innerType.type()));
           newMethod.push(renderer);
           collectLambda.push(renderer);
+          renderer.methodGen().push(owner.sourcePath());
+          renderer.methodGen().push(line);
+          renderer.methodGen().push(column);
 
           renderer.methodGen().invokeStatic(A_RUNTIME_SUPPORT_TYPE, METHOD_LEFT_JOIN);
 
@@ -425,6 +450,21 @@ public abstract class BaseOliveBuilder {
     steps.add(renderer -> renderer.mark(line));
   }
 
+  private void loadInputIndex(
+      Renderer renderer,
+      InputFormatDefinition innerType,
+      Imyhat keyType,
+      Optional<String> innerKeyFingerprint,
+      LambdaBuilder innerKeyLambda) {
+    loadInputProvider(renderer.methodGen());
+    renderer.methodGen().push(innerType.name());
+    renderer
+        .methodGen()
+        .push(innerKeyFingerprint.map(f -> keyType.descriptor() + " " + f).orElse(null));
+    innerKeyLambda.push(renderer);
+    renderer.methodGen().invokeInterface(A_INPUT_PROVIDER_TYPE, METHOD_INPUT_PROVIDER__INDEX);
+  }
+
   protected abstract void loadInputProvider(GeneratorAdapter method);
 
   protected abstract void loadOliveServices(GeneratorAdapter method);
@@ -7,13 +7,32 @@ import ca.on.oicr.gsi.shesmu.plugin.Parser;
 import ca.on.oicr.gsi.shesmu.plugin.Parser.Rule;
 import ca.on.oicr.gsi.shesmu.plugin.types.Imyhat;
 import java.nio.file.Path;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import org.objectweb.asm.Label;
 
 /** The terminal operations in <tt>For</tt> expressions */
 public abstract class CollectNode {
+  /** A collector compiled into a loop in the enclosing method */
+  public interface FusedCollector {
+    /** Initialise the result, before the loop starts */
+    void start(Renderer renderer);
+
+    /**
+     * Add the current item to the result
+     *
+     * @param renderer the loop body, where the names for the current item are defined
+     * @param end the label to jump to in order to stop the loop, if the result is already known
+     */
+    void accept(Renderer renderer, Label end);
+
+    /** Put the result on the stack, once the loop has finished */
+    void finish(Renderer renderer);
+  }
+
   private interface DefaultConstructor {
     CollectNode create(int line, int column, ExpressionNode selector, ExpressionNode alternative);
   }
@@ -185,6 +204,14 @@ public abstract class CollectNode {
     return true;
   }
 
+  /**
+   * Get a version of this collector that can be compiled into a loop in the enclosing method, if it
+   * has one
+   */
+  public Optional<FusedCollector> fuse() {
+    return Optional.empty();
+  }
+
   public abstract void render(JavaStreamBuilder builder, LoadableConstructor name);
 
   /** Resolve all variable plugins in this expression and its children. */
@@ -3,9 +3,13 @@ package ca.on.oicr.gsi.shesmu.compiler;
 import ca.on.oicr.gsi.shesmu.compiler.Target.Flavour;
 import ca.on.oicr.gsi.shesmu.plugin.types.Imyhat;
 import java.nio.file.Path;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
 
 public class CollectNodeCount extends CollectNode {
 
@@ -23,6 +27,34 @@ public class CollectNodeCount extends CollectNode {
     // Do nothing.
   }
 
+  @Override
+  public Optional<FusedCollector> fuse() {
+    return Optional.of(
+        new FusedCollector() {
+          private int count;
+
+          @Override
+          public void start(Renderer renderer) {
+            count = renderer.methodGen().newLocal(Type.LONG_TYPE);
+            renderer.methodGen().push(0L);
+            renderer.methodGen().storeLocal(count);
+          }
+
+          @Override
+          public void accept(Renderer renderer, Label end) {
+            renderer.methodGen().loadLocal(count);
+            renderer.methodGen().push(1L);
+            renderer.methodGen().math(GeneratorAdapter.ADD, Type.LONG_TYPE);
+            renderer.methodGen().storeLocal(count);
+          }
+
+          @Override
+          public void finish(Renderer renderer) {
+            renderer.methodGen().loadLocal(count);
+          }
+        });
+  }
+
   @Override
   public void render(JavaStreamBuilder builder, LoadableConstructor name) {
     builder.count();
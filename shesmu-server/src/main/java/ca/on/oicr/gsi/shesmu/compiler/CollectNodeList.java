@@ -5,12 +5,23 @@ import ca.on.oicr.gsi.shesmu.plugin.types.Imyhat;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Method;
 
 public class CollectNodeList extends CollectNode {
+  private static final Type A_IMYHAT_TYPE = Type.getType(Imyhat.class);
+  private static final Type A_OBJECT_TYPE = Type.getType(Object.class);
+  private static final Type A_SET_TYPE = Type.getType(Set.class);
+  private static final Method METHOD_IMYHAT__NEW_SET =
+      new Method("newSet", A_SET_TYPE, new Type[] {});
+  private static final Method METHOD_SET__ADD =
+      new Method("add", Type.BOOLEAN_TYPE, new Type[] {A_OBJECT_TYPE});
 
   private List<String> definedNames;
   private final ExpressionNode expression;
@@ -33,6 +44,36 @@ public class CollectNodeList extends CollectNode {
     expression.collectPlugins(pluginFileNames);
   }
 
+  @Override
+  public Optional<FusedCollector> fuse() {
+    return Optional.of(
+        new FusedCollector() {
+          private int set;
+
+          @Override
+          public void start(Renderer renderer) {
+            set = renderer.methodGen().newLocal(A_SET_TYPE);
+            renderer.loadImyhat(expression.type().descriptor());
+            renderer.methodGen().invokeVirtual(A_IMYHAT_TYPE, METHOD_IMYHAT__NEW_SET);
+            renderer.methodGen().storeLocal(set);
+          }
+
+          @Override
+          public void accept(Renderer renderer, Label end) {
+            renderer.methodGen().loadLocal(set);
+            expression.render(renderer);
+            renderer.methodGen().valueOf(expression.type().apply(TypeUtils.TO_ASM));
+            renderer.methodGen().invokeInterface(A_SET_TYPE, METHOD_SET__ADD);
+            renderer.methodGen().pop();
+          }
+
+          @Override
+          public void finish(Renderer renderer) {
+            renderer.methodGen().loadLocal(set);
+          }
+        });
+  }
+
   @Override
   public void render(JavaStreamBuilder builder, LoadableConstructor name) {
     final Set<String> freeVariables = new HashSet<>();
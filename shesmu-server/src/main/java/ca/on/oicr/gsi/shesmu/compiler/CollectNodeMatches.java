@@ -5,10 +5,14 @@ import ca.on.oicr.gsi.shesmu.plugin.types.Imyhat;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
 
 public final class CollectNodeMatches extends CollectNode {
 
@@ -35,6 +39,41 @@ public final class CollectNodeMatches extends CollectNode {
     selector.collectPlugins(pluginFileNames);
   }
 
+  @Override
+  public Optional<FusedCollector> fuse() {
+    return Optional.of(
+        new FusedCollector() {
+          private int result;
+
+          @Override
+          public void start(Renderer renderer) {
+            result = renderer.methodGen().newLocal(Type.BOOLEAN_TYPE);
+            renderer.methodGen().push(!matchType.shortCircuitResult());
+            renderer.methodGen().storeLocal(result);
+          }
+
+          @Override
+          public void accept(Renderer renderer, Label end) {
+            final Label next = renderer.methodGen().newLabel();
+            selector.render(renderer);
+            renderer
+                .methodGen()
+                .ifZCmp(
+                    matchType.stopOnPredicateMatches() ? GeneratorAdapter.EQ : GeneratorAdapter.NE,
+                    next);
+            renderer.methodGen().push(matchType.shortCircuitResult());
+            renderer.methodGen().storeLocal(result);
+            renderer.methodGen().goTo(end);
+            renderer.methodGen().mark(next);
+          }
+
+          @Override
+          public void finish(Renderer renderer) {
+            renderer.methodGen().loadLocal(result);
+          }
+        });
+  }
+
   @Override
   public final void render(JavaStreamBuilder builder, LoadableConstructor name) {
     final Set<String> freeVariables = new HashSet<>();
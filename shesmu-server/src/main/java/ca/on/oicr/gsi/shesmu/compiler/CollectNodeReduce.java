@@ -5,11 +5,13 @@ import ca.on.oicr.gsi.shesmu.plugin.types.Imyhat;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.objectweb.asm.Label;
 
 public class CollectNodeReduce extends CollectNode {
 
@@ -51,6 +53,35 @@ public class CollectNodeReduce extends CollectNode {
     reducer.collectPlugins(pluginFileNames);
   }
 
+  @Override
+  public Optional<FusedCollector> fuse() {
+    return Optional.of(
+        new FusedCollector() {
+          private int accumulator;
+
+          @Override
+          public void start(Renderer renderer) {
+            accumulator = renderer.methodGen().newLocal(initial.type().apply(TypeUtils.TO_ASM));
+            initial.render(renderer);
+            renderer.methodGen().storeLocal(accumulator);
+          }
+
+          @Override
+          public void accept(Renderer renderer, Label end) {
+            accumulatorName
+                .render(r -> r.methodGen().loadLocal(accumulator))
+                .forEach(value -> renderer.define(value.name(), value));
+            reducer.render(renderer);
+            renderer.methodGen().storeLocal(accumulator);
+          }
+
+          @Override
+          public void finish(Renderer renderer) {
+            renderer.methodGen().loadLocal(accumulator);
+          }
+        });
+  }
+
   @Override
   public void render(JavaStreamBuilder builder, LoadableConstructor name) {
     final Set<String> capturedNames = new HashSet<>();
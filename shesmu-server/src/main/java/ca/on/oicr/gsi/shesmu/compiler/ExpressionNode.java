@@ -831,6 +831,18 @@ public abstract class ExpressionNode implements Renderable {
     return column;
   }
 
+  /**
+   * Produce a canonical description of this expression, if it depends only on stream variables
+   *
+   * <p>Two expressions with the same fingerprint, evaluated on records from the same input format,
+   * will always produce the same value, even if they are in different olives or files. If the
+   * expression may depend on anything else (constants, functions, or captured variables), no
+   * fingerprint is produced.
+   */
+  public Optional<String> fingerprint() {
+    return Optional.empty();
+  }
+
   public final int line() {
     return line;
   }
@@ -4,13 +4,29 @@ import ca.on.oicr.gsi.shesmu.compiler.ListNode.Ordering;
 import ca.on.oicr.gsi.shesmu.compiler.Target.Flavour;
 import ca.on.oicr.gsi.shesmu.plugin.types.Imyhat;
 import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
 
 public class ExpressionNodeFor extends ExpressionNode {
+  private static final Type A_ITERATOR_TYPE = Type.getType(Iterator.class);
+  private static final Type A_OBJECT_TYPE = Type.getType(Object.class);
+  private static final Type A_STREAM_TYPE = Type.getType(Stream.class);
+  private static final Method METHOD_ITERATOR__HAS_NEXT =
+      new Method("hasNext", Type.BOOLEAN_TYPE, new Type[] {});
+  private static final Method METHOD_ITERATOR__NEXT =
+      new Method("next", A_OBJECT_TYPE, new Type[] {});
+  private static final Method METHOD_STREAM__ITERATOR =
+      new Method("iterator", A_ITERATOR_TYPE, new Type[] {});
 
   private final CollectNode collector;
   private final DestructuredArgumentNode name;
@@ -49,6 +65,18 @@ public class ExpressionNodeFor extends ExpressionNode {
 
   @Override
   public void render(Renderer renderer) {
+    final Optional<CollectNode.FusedCollector> fusedCollector = collector.fuse();
+    final List<ListNode.FusedOperation> fusedTransforms =
+        transforms
+            .stream()
+            .map(ListNode::fuse)
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .collect(Collectors.toList());
+    if (fusedCollector.isPresent() && fusedTransforms.size() == transforms.size()) {
+      renderFused(renderer, fusedCollector.get(), fusedTransforms);
+      return;
+    }
     final JavaStreamBuilder builder = source.render(renderer);
     collector.render(
         builder,
@@ -62,6 +90,47 @@ public class ExpressionNodeFor extends ExpressionNode {
                 }));
   }
 
+  /**
+   * Compile the operations into a loop over the source in the current method
+   *
+   * <p>This avoids creating a stream operation and lambda for every step, but only works if every
+   * step can process one item at a time.
+   */
+  private void renderFused(
+      Renderer renderer,
+      CollectNode.FusedCollector fused,
+      List<ListNode.FusedOperation> fusedTransforms) {
+    final GeneratorAdapter methodGen = renderer.methodGen();
+    source.render(renderer);
+    methodGen.invokeInterface(A_STREAM_TYPE, METHOD_STREAM__ITERATOR);
+    final int iterator = methodGen.newLocal(A_ITERATOR_TYPE);
+    methodGen.storeLocal(iterator);
+    final Renderer body = renderer.duplicate();
+    fused.start(body);
+    final Label next = methodGen.newLabel();
+    final Label end = methodGen.newLabel();
+    methodGen.mark(next);
+    methodGen.loadLocal(iterator);
+    methodGen.invokeInterface(A_ITERATOR_TYPE, METHOD_ITERATOR__HAS_NEXT);
+    methodGen.ifZCmp(GeneratorAdapter.EQ, end);
+    methodGen.loadLocal(iterator);
+    methodGen.invokeInterface(A_ITERATOR_TYPE, METHOD_ITERATOR__NEXT);
+    final Type itemType = source.streamType().apply(TypeUtils.TO_ASM);
+    methodGen.unbox(itemType);
+    final int item = methodGen.newLocal(itemType);
+    methodGen.storeLocal(item);
+    name.render(r -> r.methodGen().loadLocal(item))
+        .forEach(value -> body.define(value.name(), value));
+    LoadableConstructor current = name::render;
+    for (final ListNode.FusedOperation transform : fusedTransforms) {
+      current = transform.render(body, current, next);
+    }
+    fused.accept(body, end);
+    methodGen.goTo(next);
+    methodGen.mark(end);
+    fused.finish(renderer);
+  }
+
   @Override
   public boolean resolve(NameDefinitions defs, Consumer<String> errorHandler) {
     boolean ok = source.resolve(defs, errorHandler);
@@ -56,6 +56,11 @@ public class ExpressionNodeObjectGet extends ExpressionNode {
     expression.collectPlugins(pluginFileNames);
   }
 
+  @Override
+  public Optional<String> fingerprint() {
+    return expression.fingerprint().map(e -> e + "." + field);
+  }
+
   @Override
   public void render(Renderer renderer) {
     expression.render(renderer);
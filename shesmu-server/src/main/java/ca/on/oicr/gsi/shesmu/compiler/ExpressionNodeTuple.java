@@ -4,10 +4,13 @@ import ca.on.oicr.gsi.shesmu.compiler.Target.Flavour;
 import ca.on.oicr.gsi.shesmu.plugin.Tuple;
 import ca.on.oicr.gsi.shesmu.plugin.types.Imyhat;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.Method;
 
@@ -39,6 +42,19 @@ public class ExpressionNodeTuple extends ExpressionNode {
     items.forEach(item -> item.collectPlugins(pluginFileNames));
   }
 
+  @Override
+  public Optional<String> fingerprint() {
+    final List<String> fingerprints = new ArrayList<>();
+    for (final TupleElementNode item : items) {
+      final Optional<String> fingerprint = item.fingerprint();
+      if (!fingerprint.isPresent()) {
+        return Optional.empty();
+      }
+      fingerprints.add(fingerprint.get());
+    }
+    return Optional.of(fingerprints.stream().collect(Collectors.joining(", ", "{", "}")));
+  }
+
   @Override
   public void render(Renderer renderer) {
     renderer.mark(line());
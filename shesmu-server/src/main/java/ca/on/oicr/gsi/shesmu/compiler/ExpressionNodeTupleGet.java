@@ -171,6 +171,11 @@ public class ExpressionNodeTupleGet extends ExpressionNode {
     expression.collectPlugins(pluginFileNames);
   }
 
+  @Override
+  public Optional<String> fingerprint() {
+    return expression.fingerprint().map(e -> String.format("%s[%d]", e, index));
+  }
+
   @Override
   public void render(Renderer renderer) {
     expression.render(renderer);
@@ -66,6 +66,13 @@ public class ExpressionNodeVariable extends ExpressionNode {
     // There are many other targets that aren't from plugins, so ignore them
   }
 
+  @Override
+  public Optional<String> fingerprint() {
+    return target.flavour() == Flavour.STREAM || target.flavour() == Flavour.STREAM_SIGNABLE
+        ? Optional.of(name)
+        : Optional.empty();
+  }
+
   @Override
   public void render(Renderer renderer) {
     renderer.loadTarget(target);
@@ -11,9 +11,22 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import org.objectweb.asm.Label;
 
 /** One of the stream modification operations in a <tt>For</tt> expression */
 public abstract class ListNode {
+  /** An operation compiled into the body of a loop in the enclosing method */
+  public interface FusedOperation {
+    /**
+     * Compile this operation into the body of a loop
+     *
+     * @param renderer the loop body, where the names for the current item are defined
+     * @param skip the label to jump to in order to discard the current item
+     * @return the names for the item passed to the next operation
+     */
+    LoadableConstructor render(Renderer renderer, LoadableConstructor name, Label skip);
+  }
+
   private interface ListNodeConstructor {
     public ListNode build(int line, int column, ExpressionNode expression);
   }
@@ -140,6 +153,17 @@ public abstract class ListNode {
     return column;
   }
 
+  /**
+   * Get a version of this operation that can be compiled into a loop in the enclosing method, if it
+   * has one
+   *
+   * <p>Operations that need to see more than one item at a time, such as sorting, can only be
+   * compiled as stream operations.
+   */
+  public Optional<FusedOperation> fuse() {
+    return Optional.empty();
+  }
+
   public int line() {
     return line;
   }
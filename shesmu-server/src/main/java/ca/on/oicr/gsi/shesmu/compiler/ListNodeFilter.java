@@ -4,6 +4,7 @@ import ca.on.oicr.gsi.Pair;
 import ca.on.oicr.gsi.shesmu.plugin.types.Imyhat;
 import java.util.Optional;
 import java.util.function.Consumer;
+import org.objectweb.asm.commons.GeneratorAdapter;
 
 public class ListNodeFilter extends ListNodeWithExpression {
 
@@ -22,6 +23,16 @@ public class ListNodeFilter extends ListNodeWithExpression {
     return new Pair<>(builder.filter(line(), column(), name, loadables), name);
   }
 
+  @Override
+  public Optional<FusedOperation> fuse() {
+    return Optional.of(
+        (renderer, name, skip) -> {
+          expression.render(renderer);
+          renderer.methodGen().ifZCmp(GeneratorAdapter.EQ, skip);
+          return name;
+        });
+  }
+
   @Override
   public DestructuredArgumentNode nextName(DestructuredArgumentNode inputs) {
     return inputs;
@@ -21,6 +21,21 @@ public class ListNodeMap extends ListNodeWithExpression {
     // Do nothing.
   }
 
+  @Override
+  public Optional<FusedOperation> fuse() {
+    return Optional.of(
+        (renderer, name, skip) -> {
+          expression.render(renderer);
+          final int local =
+              renderer.methodGen().newLocal(expression.type().apply(TypeUtils.TO_ASM));
+          renderer.methodGen().storeLocal(local);
+          nextName
+              .render(r -> r.methodGen().loadLocal(local))
+              .forEach(value -> renderer.define(value.name(), value));
+          return nextName::render;
+        });
+  }
+
   @Override
   protected Pair<Renderer, LoadableConstructor> makeMethod(
       JavaStreamBuilder builder, LoadableConstructor name, LoadableValue[] loadables) {
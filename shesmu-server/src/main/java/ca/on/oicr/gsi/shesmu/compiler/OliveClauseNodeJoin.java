@@ -98,6 +98,7 @@ public class OliveClauseNodeJoin extends OliveClauseNode {
             column,
             innerInputFormat,
             outerKey.type(),
+            innerKey.fingerprint(),
             oliveBuilder
                 .loadableValues()
                 .filter(value -> freeVariables.contains(value.name()))
@@ -164,6 +164,13 @@ public final class OliveClauseNodeLeftJoin extends OliveClauseNode {
             signatureDefinition ->
                 oliveBuilder.createSignature(prefix, inputFormat, signables, signatureDefinition));
 
+    // The inner key uses the prefixed variable names, so it can only be shared with joins that use
+    // the same prefix
+    final Optional<String> innerKeyFingerprint =
+        innerKey
+            .fingerprint()
+            .map(f -> variablePrefix.isEmpty() ? f : "Prefix " + variablePrefix + " " + f);
+
     oliveBuilder.line(line);
     final Pair<JoinBuilder, RegroupVariablesBuilder> leftJoin =
         oliveBuilder.leftJoin(
@@ -171,6 +178,7 @@ public final class OliveClauseNodeLeftJoin extends OliveClauseNode {
             column,
             inputFormat,
             outerKey.type(),
+            innerKeyFingerprint,
             (signatureDefinition, renderer) -> {
               oliveBuilder.renderSigner(prefix, signatureDefinition, renderer);
             },
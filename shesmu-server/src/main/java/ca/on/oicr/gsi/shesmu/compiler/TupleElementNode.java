@@ -3,6 +3,7 @@ package ca.on.oicr.gsi.shesmu.compiler;
 import ca.on.oicr.gsi.shesmu.plugin.Parser;
 import ca.on.oicr.gsi.shesmu.plugin.types.Imyhat;
 import java.nio.file.Path;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
@@ -46,6 +47,15 @@ public abstract class TupleElementNode {
     expression.collectPlugins(pluginFileNames);
   }
 
+  /**
+   * Produce a canonical description of this element, if possible
+   *
+   * @see ExpressionNode#fingerprint()
+   */
+  public Optional<String> fingerprint() {
+    return Optional.empty();
+  }
+
   public abstract int render(Renderer renderer, int start);
 
   /** Resolve all variable plugins in this expression and its children. */
@@ -8,6 +8,8 @@ import ca.on.oicr.gsi.shesmu.compiler.RefillerDefinition;
 import ca.on.oicr.gsi.shesmu.compiler.TypeUtils;
 import ca.on.oicr.gsi.shesmu.compiler.definitions.*;
 import ca.on.oicr.gsi.shesmu.compiler.description.FileTable;
+import ca.on.oicr.gsi.shesmu.plugin.action.Action;
+import ca.on.oicr.gsi.shesmu.plugin.dumper.Dumper;
 import ca.on.oicr.gsi.shesmu.plugin.files.AutoUpdatingDirectory;
 import ca.on.oicr.gsi.shesmu.plugin.files.WatchedFileListener;
 import ca.on.oicr.gsi.shesmu.plugin.functions.FunctionParameter;
@@ -19,18 +21,35 @@ import ca.on.oicr.gsi.shesmu.server.plugins.CallSiteRegistry;
 import ca.on.oicr.gsi.shesmu.util.NameLoader;
 import ca.on.oicr.gsi.status.ConfigurationSection;
 import ca.on.oicr.gsi.status.SectionRenderer;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
 import io.prometheus.client.Gauge.Timer;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.invoke.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -38,6 +57,99 @@ import org.objectweb.asm.commons.GeneratorAdapter;
 
 /** Compiles a user-specified file into a usable program and updates it as necessary */
 public class CompiledGenerator implements DefinitionRepository {
+  /** The data for an input format, which may still be being fetched */
+  private static final class InputFetch {
+    private volatile Instant finished;
+    private final String format;
+    private final Instant queued = Instant.now();
+    /** Completes with whether the data was fetched successfully */
+    private final CompletableFuture<Boolean> ready = new CompletableFuture<>();
+
+    private volatile List<Object> records = Collections.emptyList();
+    /** For data loaded from a snapshot, the time the snapshot was saved */
+    private volatile Instant saved;
+
+    private volatile Instant started;
+    private volatile String version = "";
+
+    private InputFetch(String format) {
+      this.format = format;
+    }
+
+    public String status() {
+      if (started == null) {
+        return "Queued for " + Duration.between(queued, Instant.now());
+      }
+      if (finished == null) {
+        return "Fetching for " + Duration.between(started, Instant.now());
+      }
+      return String.format(
+          "%s %d records at %s (waited %s, fetched in %s)",
+          ready.join() ? "Loaded" : "Failed to load",
+          records.size(),
+          finished,
+          Duration.between(queued, started),
+          Duration.between(started, finished));
+    }
+  }
+
+  /** Passes actions and alerts from olives through and keeps them so they can be sent again */
+  private static final class RecordingOliveServices implements OliveServices {
+    private final OliveServices consumer;
+    private final List<Replay> emitted = Collections.synchronizedList(new ArrayList<>());
+
+    private RecordingOliveServices(OliveServices consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public boolean accept(
+        Action action, String filename, int line, int column, String hash, String[] tags) {
+      emitted.add(c -> c.accept(action, filename, line, column, hash, tags));
+      return consumer.accept(action, filename, line, column, hash, tags);
+    }
+
+    @Override
+    public boolean accept(
+        String[] labels,
+        String[] annotation,
+        long ttl,
+        String filename,
+        int line,
+        int column,
+        String hash)
+        throws Exception {
+      emitted.add(c -> c.accept(labels, annotation, ttl, filename, line, column, hash));
+      return consumer.accept(labels, annotation, ttl, filename, line, column, hash);
+    }
+
+    @Override
+    public Dumper findDumper(String name, Imyhat... types) {
+      return consumer.findDumper(name, types);
+    }
+
+    @Override
+    public boolean isOverloaded(String... services) {
+      return consumer.isOverloaded(services);
+    }
+
+    @Override
+    public <T> Stream<T> measureFlow(
+        Stream<T> input, String filename, int line, int column, int oliveLine, int oliveColumn) {
+      return consumer.measureFlow(input, filename, line, column, oliveLine, oliveColumn);
+    }
+
+    @Override
+    public void oliveRuntime(String filename, int line, int column, long timeInNs) {
+      consumer.oliveRuntime(filename, line, column, timeInNs);
+    }
+  }
+
+  /** An action or alert produced by an olive that can be sent again */
+  private interface Replay {
+    void apply(OliveServices consumer) throws Exception;
+  }
+
   private final class Script implements WatchedFileListener {
 
     class ExportedConstantDefinition extends ConstantDefinition {
@@ -141,6 +253,9 @@ public class CompiledGenerator implements DefinitionRepository {
     private List<ExportedFunctionDefinition> exportedFunctions = Collections.emptyList();
     private final Path fileName;
     private ActionGenerator generator = ActionGenerator.NULL;
+    private Instant lastCompleteRun = Instant.EPOCH;
+    private List<Replay> lastEmitted = Collections.emptyList();
+    private Map<String, String> lastInputVersions;
     private volatile boolean live = true;
     private OliveRunInfo runInfo;
     private CompletableFuture<?> running = CompletableFuture.completedFuture(null);
@@ -173,12 +288,54 @@ public class CompiledGenerator implements DefinitionRepository {
       return exportedFunctions.stream().map(x -> x);
     }
 
-    public synchronized String run(OliveServices consumer, InputProvider input) {
+    /**
+     * Check if this script has already run successfully on the same input recently enough that it
+     * does not need to be run again and, if so, send the actions and alerts from that run again
+     *
+     * <p>The action processor purges actions and expires alerts that olives stop producing, so they
+     * must be refreshed even when the olives are not run.
+     */
+    public synchronized boolean replayIfCurrent(
+        OliveServices consumer, Map<String, String> inputVersions, Instant now) {
+      if (!UNCHANGED_INPUT_RERUN
+          .map(
+              rerun ->
+                  inputVersions.equals(lastInputVersions)
+                      && Duration.between(lastCompleteRun, now).compareTo(rerun) < 0)
+          .orElse(false)) {
+        return false;
+      }
+      try {
+        for (final Replay replay : lastEmitted) {
+          replay.apply(consumer);
+        }
+        return true;
+      } catch (final Exception e) {
+        e.printStackTrace();
+        // Run the olives normally to make sure everything gets sent
+        lastInputVersions = null;
+        return false;
+      }
+    }
+
+    public synchronized String run(
+        OliveServices consumer,
+        InputProvider input,
+        Map<String, String> inputVersions,
+        Instant startTime) {
       if (!live) {
         return "Deleted while waiting to run.";
       }
       try {
-        generator.run(consumer, input);
+        if (UNCHANGED_INPUT_RERUN.isPresent()) {
+          final RecordingOliveServices recorder = new RecordingOliveServices(consumer);
+          generator.run(recorder, input);
+          lastEmitted = recorder.emitted;
+        } else {
+          generator.run(consumer, input);
+        }
+        lastInputVersions = inputVersions;
+        lastCompleteRun = startTime;
         return "Completed normally";
       } catch (final Exception e) {
         e.printStackTrace();
@@ -293,6 +450,7 @@ public class CompiledGenerator implements DefinitionRepository {
                                   makeDeadMethodHandle(
                                       callSiteEntry.first().second(),
                                       callSiteEntry.second().type())));
+              lastInputVersions = null;
               if (generator != x) {
                 generator.unregister();
                 x.register();
@@ -309,6 +467,16 @@ public class CompiledGenerator implements DefinitionRepository {
     }
   }
 
+  /** A grouped input format that is shared by the joins in different olives */
+  private static final class SharedIndex {
+    private final CompletableFuture<Map<Object, List<Object>>> index = new CompletableFuture<>();
+    private final AtomicLong remaining;
+
+    private SharedIndex(long users) {
+      remaining = new AtomicLong(users);
+    }
+  }
+
   private static final Handle BSM =
       new Handle(
           Opcodes.H_INVOKESTATIC,
@@ -324,13 +492,58 @@ public class CompiledGenerator implements DefinitionRepository {
   private static final MethodHandle CREATE_EXCEPTION;
   private static final CallSiteRegistry<Pair<String, String>> FUNCTION_REGISTRY =
       new CallSiteRegistry<>();
+  private static final int INPUT_FETCH_THREADS =
+      Optional.ofNullable(System.getenv("SHESMU_INPUT_FETCH_THREADS"))
+          .map(Integer::parseInt)
+          .orElse(4);
   public static final LatencyHistogram INPUT_FETCH_TIME =
       new LatencyHistogram(
           "shesmu_input_fetch_time", "The number of records for each input format.", "format");
+  private static final Counter INPUT_INDEX_REUSE =
+      Counter.build(
+              "shesmu_input_index_reuse",
+              "The number of times a join used an input format already grouped by another olive in the same round.")
+          .labelNames("format")
+          .register();
+  private static final Gauge INPUT_READY =
+      Gauge.build(
+              "shesmu_input_ready",
+              "Whether the last fetch of an input format completed successfully and the data is available to olives.")
+          .labelNames("format")
+          .register();
   public static final Gauge INPUT_RECORDS =
       Gauge.build("shesmu_input_records", "The number of records for each input format.")
           .labelNames("format")
           .register();
+  private static final LatencyHistogram INPUT_WAIT_TIME =
+      new LatencyHistogram(
+          "shesmu_input_fetch_wait_time",
+          "The length of time an input format waits for a thread before being fetched in seconds.",
+          "format");
+  private static final LatencyHistogram OLIVE_INPUT_WAIT_TIME =
+      new LatencyHistogram(
+          "shesmu_run_input_wait_time",
+          "The length of time an olive file waits for its input formats to be fetched in seconds.",
+          "name");
+  private static final Optional<Path> INPUT_SNAPSHOT_DIRECTORY =
+      Optional.ofNullable(System.getenv("SHESMU_INPUT_SNAPSHOT_DIR")).map(Paths::get);
+  private static final Duration INPUT_SNAPSHOT_INTERVAL =
+      Duration.ofMinutes(
+          Optional.ofNullable(System.getenv("SHESMU_INPUT_SNAPSHOT_INTERVAL"))
+              .map(Long::parseLong)
+              .orElse(30L));
+  private static final Duration INPUT_SNAPSHOT_MAX_AGE =
+      Optional.ofNullable(System.getenv("SHESMU_INPUT_SNAPSHOT_MAX_AGE"))
+          .map(Long::parseLong)
+          .map(Duration::ofMinutes)
+          .orElse(INPUT_SNAPSHOT_INTERVAL.multipliedBy(4));
+  private static final String INPUT_SNAPSHOT_SUFFIX = ".snapshot";
+  private static final Counter OLIVE_UNCHANGED_SKIPPED =
+      Counter.build(
+              "shesmu_run_unchanged_skipped",
+              "The number of times an olive file was not run because its input had not changed since it last ran.")
+          .labelNames("name")
+          .register();
   public static final Gauge OLIVE_WATCHDOG =
       Gauge.build(
               "shesmu_run_overtime",
@@ -346,6 +559,10 @@ public class CompiledGenerator implements DefinitionRepository {
               "The number of seconds the last compilation took to perform.")
           .labelNames("filename")
           .register();
+  private static final Optional<Duration> UNCHANGED_INPUT_RERUN =
+      Optional.ofNullable(System.getenv("SHESMU_UNCHANGED_INPUT_RERUN"))
+          .map(Long::parseLong)
+          .map(Duration::ofMinutes);
   private static final Gauge sourceValid =
       Gauge.build("shesmu_source_valid", "Whether the source file has been successfully compiled.")
           .labelNames("filename")
@@ -374,6 +591,20 @@ public class CompiledGenerator implements DefinitionRepository {
         : new ConstantCallSite(makeDeadMethodHandle(methodName.split(" ")[0], type));
   }
 
+  /**
+   * Compute a value that changes when the contents of an input format change
+   *
+   * <p>This is a digest of every field of every record, so it is safe to skip olives when it
+   * matches. A format without a definition gets a value that never matches.
+   */
+  private static String inputVersion(String format, List<Object> records) {
+    return AnnotatedInputFormatDefinition.formats()
+        .filter(definition -> definition.name().equals(format))
+        .findFirst()
+        .map(definition -> definition.digest(records.stream()))
+        .orElseGet(() -> UUID.randomUUID().toString());
+  }
+
   public static boolean didFileTimeout(String fileName) {
     return OLIVE_WATCHDOG.labels(fileName).get() > 0;
   }
@@ -402,7 +633,12 @@ public class CompiledGenerator implements DefinitionRepository {
 
   private final DefinitionRepository definitionRepository;
   private final ScheduledExecutorService executor;
+  private final ExecutorService fetchExecutor = Executors.newFixedThreadPool(INPUT_FETCH_THREADS);
+  private final Map<String, InputFetch> inputFetches = new ConcurrentHashMap<>();
+  private volatile Map<Pair<String, String>, LongAdder> indexUses = new ConcurrentHashMap<>();
   private Optional<AutoUpdatingDirectory<Script>> scripts = Optional.empty();
+  private final Map<String, Instant> snapshotTimes = new ConcurrentHashMap<>();
+  private final Map<String, InputFetch> snapshots = new ConcurrentHashMap<>();
   private final ExecutorService workExecutor =
       Executors.newFixedThreadPool(Math.max(1, 4 * Runtime.getRuntime().availableProcessors() - 1));
 
@@ -431,11 +667,48 @@ public class CompiledGenerator implements DefinitionRepository {
     scripts().forEach(script -> script.errorHtml(renderer));
   }
 
+  /**
+   * Start fetching an input format, unless a fetch is already in progress
+   *
+   * <p>Until a fetch succeeds, the records saved when the server last ran are used instead, if
+   * there are any and they are not too old.
+   */
+  private InputFetch fetch(InputSource input, String format) {
+    final InputFetch current =
+        inputFetches.compute(
+            format,
+            (name, existing) ->
+                existing == null || existing.ready.isDone() ? startFetch(input, name) : existing);
+    final InputFetch snapshot = snapshots.get(format);
+    if (snapshot == null
+        || (snapshot.ready.isDone() && !snapshot.ready.join())
+        || (current.ready.isDone() && current.ready.join())) {
+      return current;
+    }
+    if (snapshot.ready.isDone()
+        && Duration.between(snapshot.saved, Instant.now()).compareTo(INPUT_SNAPSHOT_MAX_AGE) > 0) {
+      // Live fetches have kept failing for so long that the snapshot is no longer a reasonable
+      // stand-in, so stop using it
+      snapshots.remove(format, snapshot);
+      return current;
+    }
+    return snapshot;
+  }
+
   @Override
   public Stream<FunctionDefinition> functions() {
     return scripts().flatMap(Script::functions);
   }
 
+  /** Display the status of the input formats as an HTML blob. */
+  public void inputHtml(SectionRenderer renderer) {
+    new TreeMap<>(inputFetches)
+        .forEach((name, fetch) -> renderer.line("Input Format " + name, fetch.status()));
+    new TreeMap<>(snapshots)
+        .forEach(
+            (name, fetch) -> renderer.line("Input Format " + name + " Snapshot", fetch.status()));
+  }
+
   @Override
   public Stream<ConfigurationSection> listConfiguration() {
     return Stream.empty();
@@ -460,38 +733,74 @@ public class CompiledGenerator implements DefinitionRepository {
             .stream()
             .filter(consumer::isOverloaded)
             .collect(Collectors.toCollection(TreeSet::new));
+    // Start fetching all the formats at once; any format that is still being fetched from a
+    // previous round is shared rather than fetched again
+    final Map<String, InputFetch> data =
+        SOURCES
+            .all()
+            .map(InputFormatDefinition::name)
+            .filter(name -> usedFormats.contains(name) && !inhibitedFormats.contains(name))
+            .collect(Collectors.toMap(Function.identity(), name -> fetch(input, name)));
+    // Count how many joins use each key so that the next round knows which indices are worth
+    // sharing and when they can be released
+    final Map<Pair<String, String>, LongAdder> lastIndexUses = indexUses;
+    final Map<Pair<String, String>, LongAdder> currentIndexUses = new ConcurrentHashMap<>();
+    indexUses = currentIndexUses;
     final InputProvider cache =
         new InputProvider() {
-          final Map<String, List<Object>> data =
-              SOURCES
-                  .all()
-                  .filter(
-                      format ->
-                          usedFormats.contains(format.name())
-                              && !inhibitedFormats.contains(format.name()))
-                  .collect(
-                      Collectors.toMap(
-                          InputFormatDefinition::name,
-                          format -> {
-                            try (AutoCloseable timer = INPUT_FETCH_TIME.start(format.name());
-                                AutoCloseable inflight =
-                                    Server.inflightCloseable("Fetching " + format.name())) {
-                              final List<Object> results =
-                                  input.fetch(format.name(), false).collect(Collectors.toList());
-                              INPUT_RECORDS.labels(format.name()).set(results.size());
-                              return results;
-                            } catch (final Exception e) {
-                              e.printStackTrace();
-                              // If we failed to load this format, pretend like it was inhibited and
-                              // don't run dependent olives
-                              inhibitedFormats.add(format.name());
-                              return Collections.emptyList();
-                            }
-                          }));
+
+          // Joins in different olives that compute the same key over the same input format share
+          // the grouped input until the last of them has fetched it
+          final Map<Pair<String, String>, SharedIndex> indices = new ConcurrentHashMap<>();
 
           @Override
           public Stream<Object> fetch(String format) {
-            return data.getOrDefault(format, Collections.emptyList()).stream();
+            final InputFetch fetch = data.get(format);
+            return fetch == null ? Stream.empty() : fetch.records.stream();
+          }
+
+          @Override
+          public Map<Object, List<Object>> index(
+              String format, String fingerprint, Function<Object, Object> makeKey) {
+            if (fingerprint == null) {
+              return RuntimeSupport.joinIndex(fetch(format), makeKey);
+            }
+            final Pair<String, String> key = new Pair<>(format, fingerprint);
+            currentIndexUses.computeIfAbsent(key, k -> new LongAdder()).increment();
+            final LongAdder lastUses = lastIndexUses.get(key);
+            // If only one join used this key last round, there's nothing to share
+            if (lastUses == null || lastUses.sum() < 2) {
+              return RuntimeSupport.joinIndex(fetch(format), makeKey);
+            }
+            final SharedIndex created = new SharedIndex(lastUses.sum());
+            final SharedIndex existing = indices.putIfAbsent(key, created);
+            final SharedIndex shared = existing == null ? created : existing;
+            if (shared.remaining.decrementAndGet() <= 0) {
+              // This is the last expected user, so drop the index once this join is done with it
+              indices.remove(key, shared);
+            }
+            if (existing != null) {
+              INPUT_INDEX_REUSE.labels(format).inc();
+              try {
+                return shared.index.join();
+              } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                  throw (RuntimeException) e.getCause();
+                }
+                throw e;
+              }
+            }
+            // Group the input outside the map, so other joins waiting for it hold no locks
+            try {
+              final Map<Object, List<Object>> index =
+                  RuntimeSupport.joinIndex(fetch(format), makeKey);
+              created.index.complete(index);
+              return index;
+            } catch (RuntimeException | Error e) {
+              indices.remove(key, created);
+              created.index.completeExceptionally(e);
+              throw e;
+            }
           }
         };
 
@@ -513,51 +822,96 @@ public class CompiledGenerator implements DefinitionRepository {
         // have.
         .forEach(
             script -> {
+              final List<InputFetch> inputs =
+                  script
+                      .generator
+                      .inputs()
+                      .distinct()
+                      .map(data::get)
+                      .filter(Objects::nonNull)
+                      .collect(Collectors.toList());
+              final long waitStart = System.nanoTime();
               final AtomicReference<Runnable> inflight =
-                  new AtomicReference<>(Server.inflight("Queued " + script.fileName.toString()));
-              // For each script, create two futures: one that runs the olive script and
-              // return true and one that will wait for the timeout and return false
-              final CompletableFuture<OliveRunInfo> timeoutFuture = new CompletableFuture<>();
-              final CompletableFuture<OliveRunInfo> processFuture =
-                  CompletableFuture.supplyAsync(
-                      () -> {
-                        final Instant startTime = Instant.now();
-                        inflight.get().run();
-                        inflight.set(Server.inflight("Running " + script.fileName.toString()));
-                        script.runInfo = new OliveRunInfo(true, "Running now", null, startTime);
-                        final long inputCount =
-                            script.dashboard == null
-                                ? 0
-                                : cache.fetch(script.dashboard.format().name()).count();
-                        // We wait to schedule the timeout for when the script is actually
-                        // starting
-                        executor.schedule(
-                            () ->
-                                timeoutFuture.complete(
-                                    new OliveRunInfo(
-                                        false, "Deadline exceeded", inputCount, startTime)),
-                            script.generator.timeout(),
-                            TimeUnit.SECONDS);
-                        return new OliveRunInfo(
-                            true, script.run(consumer, cache), inputCount, startTime);
-                      },
-                      workExecutor);
-
-              // Then create another future that waits for either of the above to finish and
-              // nukes the other
+                  new AtomicReference<>(
+                      Server.inflight("Waiting for input for " + script.fileName.toString()));
+              // Each olive file starts as soon as the formats it uses are available, without
+              // waiting for formats used only by other olive files
               script.running =
-                  CompletableFuture.anyOf(timeoutFuture, processFuture)
-                      .thenAccept(
-                          obj -> {
-                            final OliveRunInfo runInfo = (OliveRunInfo) obj;
-                            script.runInfo = runInfo;
-                            OLIVE_WATCHDOG
-                                .labels(script.fileName.toString())
-                                .set(runInfo.isOk() ? 0 : 1);
-                            timeoutFuture.cancel(true);
-                            processFuture.cancel(true);
+                  CompletableFuture.allOf(
+                          inputs
+                              .stream()
+                              .map(fetch -> fetch.ready)
+                              .toArray(CompletableFuture[]::new))
+                      .thenComposeAsync(
+                          x -> {
+                            OLIVE_INPUT_WAIT_TIME.observe(waitStart, script.fileName.toString());
                             inflight.get().run();
-                          });
+                            // If we failed to load a format, don't run dependent olives
+                            if (!inputs.stream().allMatch(fetch -> fetch.ready.join())) {
+                              return CompletableFuture.completedFuture(null);
+                            }
+                            return launch(script, consumer, cache, inputs, inflight);
+                          },
+                          workExecutor);
+            });
+  }
+
+  private CompletableFuture<?> launch(
+      Script script,
+      OliveServices consumer,
+      InputProvider cache,
+      List<InputFetch> inputs,
+      AtomicReference<Runnable> inflight) {
+    final Map<String, String> scriptInputVersions =
+        inputs.stream().collect(Collectors.toMap(fetch -> fetch.format, fetch -> fetch.version));
+    // If the olives have already run on exactly this data, running them again will only
+    // produce the same actions, so send the ones from the last run instead
+    if (script.replayIfCurrent(consumer, scriptInputVersions, Instant.now())) {
+      OLIVE_UNCHANGED_SKIPPED.labels(script.fileName.toString()).inc();
+      return CompletableFuture.completedFuture(null);
+    }
+    inflight.set(Server.inflight("Queued " + script.fileName.toString()));
+    // For each script, create two futures: one that runs the olive script and
+    // return true and one that will wait for the timeout and return false
+    final CompletableFuture<OliveRunInfo> timeoutFuture = new CompletableFuture<>();
+    final CompletableFuture<OliveRunInfo> processFuture =
+        CompletableFuture.supplyAsync(
+            () -> {
+              final Instant startTime = Instant.now();
+              inflight.get().run();
+              inflight.set(Server.inflight("Running " + script.fileName.toString()));
+              script.runInfo = new OliveRunInfo(true, "Running now", null, startTime);
+              final long inputCount =
+                  script.dashboard == null
+                      ? 0
+                      : cache.fetch(script.dashboard.format().name()).count();
+              // We wait to schedule the timeout for when the script is actually
+              // starting
+              executor.schedule(
+                  () ->
+                      timeoutFuture.complete(
+                          new OliveRunInfo(false, "Deadline exceeded", inputCount, startTime)),
+                  script.generator.timeout(),
+                  TimeUnit.SECONDS);
+              return new OliveRunInfo(
+                  true,
+                  script.run(consumer, cache, scriptInputVersions, startTime),
+                  inputCount,
+                  startTime);
+            },
+            workExecutor);
+
+    // Then create another future that waits for either of the above to finish and
+    // nukes the other
+    return CompletableFuture.anyOf(timeoutFuture, processFuture)
+        .thenAccept(
+            obj -> {
+              final OliveRunInfo runInfo = (OliveRunInfo) obj;
+              script.runInfo = runInfo;
+              OLIVE_WATCHDOG.labels(script.fileName.toString()).set(runInfo.isOk() ? 0 : 1);
+              timeoutFuture.cancel(true);
+              processFuture.cancel(true);
+              inflight.get().run();
             });
   }
 
@@ -570,10 +924,133 @@ public class CompiledGenerator implements DefinitionRepository {
     return Stream.empty();
   }
 
+  /** Save the records for an input format so they can be used when the server is restarted */
+  private void saveSnapshot(String format, List<Object> records) {
+    // Only one fetch of a format runs at a time, so there's no race here
+    final Instant now = Instant.now();
+    if (Duration.between(snapshotTimes.getOrDefault(format, Instant.EPOCH), now)
+            .compareTo(INPUT_SNAPSHOT_INTERVAL)
+        < 0) {
+      return;
+    }
+    snapshotTimes.put(format, now);
+    INPUT_SNAPSHOT_DIRECTORY.ifPresent(
+        directory ->
+            AnnotatedInputFormatDefinition.formats()
+                .filter(definition -> definition.name().equals(format))
+                .forEach(
+                    definition -> {
+                      final Path snapshot = directory.resolve(format + INPUT_SNAPSHOT_SUFFIX);
+                      final Path temporary =
+                          directory.resolve(format + INPUT_SNAPSHOT_SUFFIX + ".tmp");
+                      // The save time is written before the compressed records, so it can be
+                      // checked without reading them
+                      try (final OutputStream file = Files.newOutputStream(temporary)) {
+                        new DataOutputStream(file).writeLong(now.toEpochMilli());
+                        try (final OutputStream output = new GZIPOutputStream(file);
+                            final JsonGenerator generator =
+                                RuntimeSupport.MAPPER.getFactory().createGenerator(output)) {
+                          definition.writeJson(generator, records.stream());
+                        }
+                      } catch (final Exception e) {
+                        e.printStackTrace();
+                        return;
+                      }
+                      try {
+                        Files.move(
+                            temporary,
+                            snapshot,
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                      } catch (final IOException e) {
+                        e.printStackTrace();
+                      }
+                    }));
+  }
+
   public void start() {
+    INPUT_SNAPSHOT_DIRECTORY.ifPresent(
+        directory ->
+            AnnotatedInputFormatDefinition.formats()
+                .filter(
+                    definition ->
+                        Files.exists(directory.resolve(definition.name() + INPUT_SNAPSHOT_SUFFIX)))
+                .forEach(
+                    definition ->
+                        snapshots.put(definition.name(), startLoad(directory, definition))));
     scripts = Optional.of(new AutoUpdatingDirectory<>(".shesmu", Script::new));
   }
 
+  private InputFetch startFetch(InputSource input, String format) {
+    final InputFetch fetch = new InputFetch(format);
+    final AutoCloseable waitTimer = INPUT_WAIT_TIME.start(format);
+    final Runnable queued = Server.inflight("Queued fetch of " + format);
+    INPUT_READY.labels(format).set(0);
+    fetchExecutor.execute(
+        () -> {
+          queued.run();
+          fetch.started = Instant.now();
+          boolean ok;
+          try (AutoCloseable timer = INPUT_FETCH_TIME.start(format);
+              AutoCloseable inflight = Server.inflightCloseable("Fetching " + format)) {
+            waitTimer.close();
+            final List<Object> results = input.fetch(format, false).collect(Collectors.toList());
+            INPUT_RECORDS.labels(format).set(results.size());
+            if (UNCHANGED_INPUT_RERUN.isPresent()) {
+              fetch.version = inputVersion(format, results);
+            }
+            fetch.records = results;
+            ok = true;
+          } catch (final Exception e) {
+            e.printStackTrace();
+            ok = false;
+          }
+          fetch.finished = Instant.now();
+          INPUT_READY.labels(format).set(ok ? 1 : 0);
+          fetch.ready.complete(ok);
+          if (ok) {
+            snapshots.remove(format);
+            saveSnapshot(format, fetch.records);
+          }
+        });
+    return fetch;
+  }
+
+  /** Read the records for an input format saved when the server last ran */
+  private InputFetch startLoad(Path directory, AnnotatedInputFormatDefinition definition) {
+    final InputFetch fetch = new InputFetch(definition.name());
+    fetchExecutor.execute(
+        () -> {
+          fetch.started = Instant.now();
+          boolean ok;
+          try (final InputStream file =
+              Files.newInputStream(directory.resolve(definition.name() + INPUT_SNAPSHOT_SUFFIX))) {
+            final Instant saved = Instant.ofEpochMilli(new DataInputStream(file).readLong());
+            if (Duration.between(saved, Instant.now()).compareTo(INPUT_SNAPSHOT_MAX_AGE) > 0) {
+              throw new IllegalStateException(
+                  String.format(
+                      "Snapshot of %s saved at %s is too old to use.", definition.name(), saved));
+            }
+            fetch.saved = saved;
+            try (final InputStream input = new GZIPInputStream(file);
+                final JsonParser parser = RuntimeSupport.MAPPER.getFactory().createParser(input)) {
+              final List<Object> results = definition.readJson(parser);
+              if (UNCHANGED_INPUT_RERUN.isPresent()) {
+                fetch.version = inputVersion(definition.name(), results);
+              }
+              fetch.records = results;
+            }
+            ok = true;
+          } catch (final Exception e) {
+            e.printStackTrace();
+            ok = false;
+          }
+          fetch.finished = Instant.now();
+          fetch.ready.complete(ok);
+        });
+    return fetch;
+  }
+
   @Override
   public void writeJavaScriptRenderer(PrintStream writer) {}
 }
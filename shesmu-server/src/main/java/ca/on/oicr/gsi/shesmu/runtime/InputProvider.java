@@ -1,7 +1,26 @@
 package ca.on.oicr.gsi.shesmu.runtime;
 
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 public interface InputProvider {
   Stream<Object> fetch(String format);
+
+  /**
+   * Group the records of an input format by the key used to join against them
+   *
+   * <p>If a fingerprint is provided, any other olive that asks for an index with the same
+   * fingerprint is computing the same key, so an implementation may share the result between them.
+   * The result must not be modified.
+   *
+   * @param format the input format to fetch
+   * @param fingerprint a canonical description of the key, or null if the key cannot be shared
+   * @param makeKey compute the key for a record
+   */
+  default Map<Object, List<Object>> index(
+      String format, String fingerprint, Function<Object, Object> makeKey) {
+    return RuntimeSupport.joinIndex(fetch(format), makeKey);
+  }
 }
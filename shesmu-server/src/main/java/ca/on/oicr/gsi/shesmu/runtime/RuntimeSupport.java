@@ -72,6 +72,11 @@ public final class RuntimeSupport {
     }
   }
 
+  /** The inner input of a join, grouped by key, along with the number of records in it */
+  private static final class JoinIndex<K, N> extends HashMap<K, List<N>> {
+    private long rows;
+  }
+
   @RuntimeInterop public static final String[] EMPTY = new String[0];
   public static final ObjectMapper MAPPER = new ObjectMapper();
 
@@ -86,6 +91,24 @@ public final class RuntimeSupport {
       };
 
   private static final Map<Pair<String, Integer>, CallSite> callsites = new HashMap<>();
+  private static final Gauge joinBuildKeys =
+      Gauge.build(
+              "shesmu_join_build_keys",
+              "The number of distinct keys in the inner input held in memory by a join or left join.")
+          .labelNames("filename", "line", "column")
+          .register();
+  private static final Gauge joinBuildRows =
+      Gauge.build(
+              "shesmu_join_build_rows",
+              "The number of inner input rows held in memory by a join or left join.")
+          .labelNames("filename", "line", "column")
+          .register();
+  private static final Gauge joinProbeRows =
+      Gauge.build(
+              "shesmu_join_probe_rows",
+              "The number of outer rows probed against the inner input by a join or left join.")
+          .labelNames("filename", "line", "column")
+          .register();
 
   static {
     MAPPER.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
@@ -180,26 +203,55 @@ public final class RuntimeSupport {
     return result == null ? JsonNodeFactory.instance.nullNode() : result;
   }
 
+  /**
+   * Join a stream of input against another input format
+   *
+   * <p>Only the inner (right) input is held in memory, grouped by key; the outer (left) stream is
+   * consumed lazily as output is requested.
+   *
+   * @param input the stream to be joined against
+   * @param innerGroups the inner (right) input, grouped by joining key
+   * @param makeOuterKey create the joining key from an outer record
+   * @param joiner a function to create an output type from the two types
+   * @param filename the source file containing the join, for monitoring
+   * @param line the line of the join, for monitoring
+   * @param column the column of the join, for monitoring
+   */
   @RuntimeInterop
   public static <I, N, K, O> Stream<O> join(
       Stream<I> input,
-      Stream<N> inner,
+      Map<K, List<N>> innerGroups,
       Function<I, K> makeOuterKey,
-      Function<N, K> makeInnerKey,
-      BiFunction<I, N, O> joiner) {
-    final Map<K, List<I>> inputGroups = input.collect(Collectors.groupingBy(makeOuterKey));
-    input.close();
-    final Map<K, List<N>> innerGroups = inner.collect(Collectors.groupingBy(makeInnerKey));
-    inner.close();
-    return inputGroups
-        .entrySet()
-        .stream()
-        .flatMap(
-            e ->
-                innerGroups
-                    .getOrDefault(e.getKey(), Collections.emptyList())
-                    .stream()
-                    .flatMap(n -> e.getValue().stream().map(i -> joiner.apply(i, n))));
+      BiFunction<I, N, O> joiner,
+      String filename,
+      int line,
+      int column) {
+    final Gauge.Child probeRows = monitorJoin(innerGroups, filename, line, column);
+    return input.flatMap(
+        i -> {
+          probeRows.inc();
+          return innerGroups
+              .getOrDefault(makeOuterKey.apply(i), Collections.emptyList())
+              .stream()
+              .map(n -> joiner.apply(i, n));
+        });
+  }
+
+  /**
+   * Group the records of an input format by the key used to join against them
+   *
+   * @param inner the records to group; this stream will be closed
+   * @param makeInnerKey create the joining key from a record
+   */
+  public static <N, K> Map<K, List<N>> joinIndex(Stream<N> inner, Function<N, K> makeInnerKey) {
+    final JoinIndex<K, N> innerGroups = new JoinIndex<>();
+    try (final Stream<N> s = inner) {
+      for (final N n : (Iterable<N>) s::iterator) {
+        innerGroups.computeIfAbsent(makeInnerKey.apply(n), k -> new ArrayList<>(1)).add(n);
+        innerGroups.rows++;
+      }
+    }
+    return innerGroups;
   }
 
   @RuntimeInterop
@@ -236,48 +288,44 @@ public final class RuntimeSupport {
   /**
    * Left join a stream of input against another input format
    *
+   * <p>Only the inner (right) input is held in memory, grouped by key; the outer (left) stream is
+   * consumed lazily as output is requested.
+   *
    * @param input the stream to be joined against
-   * @param inner the type of the inner (right) input stream
-   * @param joiner a function to create an intermediate joined type from the two types
+   * @param innerGroups the inner (right) input, grouped by joining key
    * @param makeOuterKey create the joining key from an outer record
-   * @param makeInnerKey create the joining key from an inner record
+   * @param joiner a function to create an intermediate joined type from the two types
    * @param makeOutput a function to create a new output type; it must accept a joined type where
    *     the right side will be null
    * @param collector a function that processes joined inputs with both right and left values to an
    *     output
+   * @param filename the source file containing the join, for monitoring
+   * @param line the line of the join, for monitoring
+   * @param column the column of the join, for monitoring
    * @return
    */
   @RuntimeInterop
   public static <I, N, K, J, O> Stream<O> leftJoin(
       Stream<I> input,
-      Stream<N> inner,
+      Map<K, List<N>> innerGroups,
       Function<I, K> makeOuterKey,
-      Function<N, K> makeInnerKey,
       BiFunction<I, N, J> joiner,
       Function<J, O> makeOutput,
-      BiConsumer<O, J> collector) {
-    final Map<K, List<I>> inputGroups = input.collect(Collectors.groupingBy(makeOuterKey));
-    input.close();
-    final Map<K, List<N>> innerGroups = inner.collect(Collectors.groupingBy(makeInnerKey));
-
-    return inputGroups
-        .entrySet()
-        .stream()
-        .flatMap(
-            e -> {
-              final List<N> innerData =
-                  innerGroups.getOrDefault(e.getKey(), Collections.emptyList());
-
-              return e.getValue()
-                  .stream()
-                  .map(
-                      left -> {
-                        final O output = makeOutput.apply(joiner.apply(left, null));
-                        innerData.forEach(
-                            right -> collector.accept(output, joiner.apply(left, right)));
-                        return output;
-                      });
-            });
+      BiConsumer<O, J> collector,
+      String filename,
+      int line,
+      int column) {
+    final Gauge.Child probeRows = monitorJoin(innerGroups, filename, line, column);
+    return input.map(
+        left -> {
+          probeRows.inc();
+          final O output = makeOutput.apply(joiner.apply(left, null));
+          for (final N right :
+              innerGroups.getOrDefault(makeOuterKey.apply(left), Collections.emptyList())) {
+            collector.accept(output, joiner.apply(left, right));
+          }
+          return output;
+        });
   }
 
   @RuntimeInterop
@@ -285,6 +333,21 @@ public final class RuntimeSupport {
     return left.isPresent() ? left : right.get();
   }
 
+  private static Gauge.Child monitorJoin(
+      Map<?, ? extends List<?>> innerGroups, String filename, int line, int column) {
+    final String[] labels = {filename, Integer.toString(line), Integer.toString(column)};
+    joinBuildKeys.labels(labels).set(innerGroups.size());
+    joinBuildRows
+        .labels(labels)
+        .set(
+            innerGroups instanceof JoinIndex
+                ? ((JoinIndex<?, ?>) innerGroups).rows
+                : innerGroups.values().stream().mapToLong(List::size).sum());
+    final Gauge.Child probeRows = joinProbeRows.labels(labels);
+    probeRows.set(0);
+    return probeRows;
+  }
+
   /**
    * Add Prometheus monitoring to a stream.
    *
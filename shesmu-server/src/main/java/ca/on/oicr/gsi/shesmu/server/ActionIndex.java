@@ -0,0 +1,116 @@
+package ca.on.oicr.gsi.shesmu.server;
+
+import ca.on.oicr.gsi.shesmu.plugin.action.Action;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * An inverted index from some property of an action to the actions that have it
+ *
+ * <p>This is used to narrow the set of actions a filter must be checked against. Lookups always
+ * return a copy, so the result can be used after the index has changed.
+ *
+ * @param <K> the type of the property being indexed
+ */
+final class ActionIndex<K> {
+  /** Create an index that can only be searched for exact matches */
+  public static <K> ActionIndex<K> hashed() {
+    return new ActionIndex<>(new HashMap<>());
+  }
+
+  /** Create an index that can also be searched by range */
+  public static <K extends Comparable<K>> ActionIndex<K> sorted() {
+    return new ActionIndex<>(new TreeMap<>());
+  }
+
+  private final Map<K, Set<Action>> index;
+
+  private ActionIndex(Map<K, Set<Action>> index) {
+    this.index = index;
+  }
+
+  /** Associate an action with a property value */
+  public synchronized void add(K key, Action action) {
+    index.computeIfAbsent(key, k -> new HashSet<>()).add(action);
+  }
+
+  /**
+   * Find all the actions that have any of the property values provided
+   *
+   * @param keys the property values to search for
+   */
+  public synchronized Set<Action> find(Stream<K> keys) {
+    final Set<Action> result = new HashSet<>();
+    keys.forEach(key -> result.addAll(index.getOrDefault(key, Collections.emptySet())));
+    return result;
+  }
+
+  /**
+   * Find all the actions that have a property value matching a predicate
+   *
+   * <p>This is intended for properties with few distinct values, since every value is checked.
+   */
+  public synchronized Set<Action> match(Predicate<? super K> predicate) {
+    final Set<Action> result = new HashSet<>();
+    for (final Map.Entry<K, Set<Action>> entry : index.entrySet()) {
+      if (predicate.test(entry.getKey())) {
+        result.addAll(entry.getValue());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Change the property value associated with an action
+   *
+   * <p>The action is added to the new value before being removed from the old one, so a concurrent
+   * search may see it in both, but never in neither.
+   */
+  public void move(K oldKey, K newKey, Action action) {
+    if (oldKey.equals(newKey)) {
+      return;
+    }
+    add(newKey, action);
+    remove(oldKey, action);
+  }
+
+  /**
+   * Find all actions in a range of property values
+   *
+   * @param start the inclusive lower bound, if any
+   * @param end the exclusive upper bound, if any
+   */
+  public synchronized Set<Action> range(Optional<K> start, Optional<K> end) {
+    NavigableMap<K, Set<Action>> range = (NavigableMap<K, Set<Action>>) index;
+    if (start.isPresent()) {
+      range = range.tailMap(start.get(), true);
+    }
+    if (end.isPresent()) {
+      range = range.headMap(end.get(), false);
+    }
+    final Set<Action> result = new HashSet<>();
+    for (final Set<Action> actions : range.values()) {
+      result.addAll(actions);
+    }
+    return result;
+  }
+
+  /** Disassociate an action with a property value */
+  public synchronized void remove(K key, Action action) {
+    final Set<Action> actions = index.get(key);
+    if (actions != null) {
+      actions.remove(action);
+      if (actions.isEmpty()) {
+        index.remove(key);
+      }
+    }
+  }
+}
@@ -38,6 +38,7 @@ import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
@@ -174,6 +175,19 @@ public final class ActionProcessor
 
   /** A filter all the actions based on some criteria */
   public abstract static class Filter {
+    /**
+     * Find the actions that might match this filter using the indices, if possible
+     *
+     * <p>The result may include actions that do not match this filter, but must include every
+     * action that does. {@link #check(Action, Information)} will still be applied to every
+     * candidate.
+     *
+     * @return the candidate actions or empty if every action must be checked
+     */
+    protected Optional<Set<Action>> candidates() {
+      return Optional.empty();
+    }
+
     protected abstract boolean check(Action action, Information info);
 
     /** Produce a filter that selects the opposite output of this filter. */
@@ -190,12 +204,19 @@ public final class ActionProcessor
   }
 
   private static class Information {
+    Set<String> actionTags = Collections.emptySet();
     final String id;
+    // The state the action is filed under in the state index; only changed while holding this
+    // object's lock
+    ActionState indexedState = ActionState.UNKNOWN;
     Instant lastAdded = Instant.now();
     Instant lastChecked = Instant.EPOCH;
     ActionState lastState = ActionState.UNKNOWN;
     Instant lastStateTransition = Instant.now();
     final Set<SourceLocation> locations = ConcurrentHashMap.newKeySet();
+    // Set once the action has been removed from the indices, so a perform that finishes later
+    // doesn't put it back; only used while holding this object's lock
+    boolean purged;
     final Set<String> tags = ConcurrentHashMap.newKeySet();
     String thrown;
     volatile boolean updateInProgress;
@@ -240,6 +261,18 @@ public final class ActionProcessor
 
   public static final int ACTION_PERFORM_THREADS =
       Math.max(1, Runtime.getRuntime().availableProcessors() * 5 - 1);
+  /**
+   * The number of threads available to perform each action type
+   *
+   * <p>This is read from the <tt>SHESMU_ACTION_THREADS</tt> environment variable as a
+   * comma-separated list of <i>type</i><tt>=</tt><i>threads</i> pairs. Any type not listed gets
+   * {@link #ACTION_PERFORM_THREADS}.
+   */
+  private static final Map<String, Integer> ACTION_TYPE_THREADS =
+      Optional.ofNullable(System.getenv("SHESMU_ACTION_THREADS"))
+          .map(ActionProcessor::parseThreadLimits)
+          .orElse(Collections.emptyMap());
+
   private static final BinMember<Instant> ADDED =
       new BinMember<Instant>() {
 
@@ -399,6 +432,9 @@ public final class ActionProcessor
       Gauge.build("shesmu_olive_run_time", "The runtime of an olive in seconds.")
           .labelNames("filename", "line", "column")
           .register();
+  private static final Pattern COMMA = Pattern.compile(",");
+  private static final Pattern EQUAL = Pattern.compile("=");
+  private static final Duration RESTORED_STATE_RETENTION = Duration.ofDays(1);
   private static final Pattern SLASH = Pattern.compile("/");
   private static final Property<String> SOURCE_FILE =
       new Property<String>() {
@@ -489,11 +525,27 @@ public final class ActionProcessor
           "shesmu_action_perform_time",
           "The length of time for an action to update it state in seconds.",
           "type");
+  private static final Gauge actionInflight =
+      Gauge.build(
+              "shesmu_action_perform_inflight", "The number of actions currently being performed.")
+          .labelNames("type")
+          .register();
+  private static final Gauge actionQueueDepth =
+      Gauge.build(
+              "shesmu_action_perform_queue_depth",
+              "The number of actions waiting for a thread to be performed.")
+          .labelNames("type")
+          .register();
   private static final Gauge actionThrows =
       Gauge.build(
               "shesmu_action_perform_throw",
               "The number of actions that threw an exception in their last attempt.")
           .register();
+  private static final LatencyHistogram actionWaitTime =
+      new LatencyHistogram(
+          "shesmu_action_perform_wait_time",
+          "The length of time an action waits for a thread before being performed in seconds.",
+          "type");
   private static final Gauge currentRunningActionsGauge =
       Gauge.build(
               "shesmu_action_currently_running",
@@ -538,6 +590,46 @@ public final class ActionProcessor
     return x -> SLASH.splitAsStream(x).skip(commonPrefix.size()).collect(Collectors.joining("/"));
   }
 
+  /**
+   * Find the actions that might satisfy all the filters provided
+   *
+   * @return the candidate actions, or empty if none of the filters can be answered by the indices
+   */
+  private static Optional<Set<Action>> intersectCandidates(Stream<Filter> filters) {
+    final List<Set<Action>> candidates =
+        filters
+            .map(Filter::candidates)
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .sorted(Comparator.comparingInt(Set::size))
+            .collect(Collectors.toList());
+    if (candidates.isEmpty()) {
+      return Optional.empty();
+    }
+    final Set<Action> result = new HashSet<>(candidates.get(0));
+    for (int i = 1; i < candidates.size() && !result.isEmpty(); i++) {
+      result.retainAll(candidates.get(i));
+    }
+    return Optional.of(result);
+  }
+
+  private static Map<String, Integer> parseThreadLimits(String configuration) {
+    final Map<String, Integer> limits = new HashMap<>();
+    for (final String item : COMMA.split(configuration)) {
+      final String[] parts = EQUAL.split(item.trim(), 2);
+      if (parts.length != 2) {
+        System.err.printf("Ignoring bad action thread limit: %s\n", item);
+        continue;
+      }
+      try {
+        limits.put(parts[0].trim(), Math.max(1, Integer.parseInt(parts[1].trim())));
+      } catch (NumberFormatException e) {
+        System.err.printf("Ignoring bad action thread limit: %s\n", item);
+      }
+    }
+    return limits;
+  }
+
   private static <T extends Comparable<T>> void propertySummary(
       ArrayNode table, Property<T> property, List<Entry<Action, Information>> actions) {
     final TreeMap<T, Set<Action>> states =
@@ -565,31 +657,51 @@ public final class ActionProcessor
 
   private final ActionServices actionServices;
   private final Map<Action, Information> actions = new ConcurrentHashMap<>();
+  private final ActionIndex<Instant> addedIndex = ActionIndex.sorted();
   private final AutoLock alertLock = new AutoLock();
   private final Map<Map<String, String>, Alert> alerts = new HashMap<>();
   private final String baseUri;
+  private final ActionIndex<Instant> checkedIndex = ActionIndex.sorted();
   private String currentAlerts = "[]";
   private final AtomicInteger currentRunningActions = new AtomicInteger();
+  private final ActionIndex<String> fileIndex = ActionIndex.hashed();
+  private final Map<String, Action> idIndex = new ConcurrentHashMap<>();
   private final Set<String> knownActionTypes = ConcurrentHashMap.newKeySet();
+  private final ActionIndex<SourceLocation> locationIndex = ActionIndex.hashed();
   private final PluginManager manager;
   private final Set<String> pausedFiles = ConcurrentHashMap.newKeySet();
   private final Set<SourceLocation> pausedOlives = ConcurrentHashMap.newKeySet();
+  private final ActionScheduler<Information> scheduler = new ActionScheduler<>();
+  private final Map<String, ActionStateStore.SavedState> restoredStates;
+  private final Instant restoreTime = Instant.now();
   private final Set<SourceLocation> sourceLocations = ConcurrentHashMap.newKeySet();
+  private final ActionIndex<ActionState> stateIndex = ActionIndex.hashed();
+  private final ActionStateStore stateStore;
+  private final ActionIndex<Instant> statusChangedIndex = ActionIndex.sorted();
+  private final ActionIndex<String> tagIndex = ActionIndex.hashed();
   private final ScheduledExecutorService timeoutExecutor =
       Executors.newSingleThreadScheduledExecutor();
-  private final ExecutorService workExecutor = Executors.newFixedThreadPool(ACTION_PERFORM_THREADS);
-
-  public ActionProcessor(String baseUri, PluginManager manager, ActionServices actionServices) {
+  private final ActionIndex<String> typeIndex = ActionIndex.hashed();
+  private final Map<String, ThreadPoolExecutor> workExecutors = new ConcurrentHashMap<>();
+
+  public ActionProcessor(
+      String baseUri,
+      PluginManager manager,
+      ActionServices actionServices,
+      ActionStateStore stateStore) {
     super();
     this.baseUri = baseUri;
     this.manager = manager;
     this.actionServices = actionServices;
+    this.stateStore = stateStore;
+    restoredStates = new ConcurrentHashMap<>(stateStore.load());
   }
 
   /**
    * Add an action to the execution pool
    *
-   * <p>If this action is a duplicate of an existing action, the existing state is kept.
+   * <p>If this action is a duplicate of an existing action, the existing state is kept. If this
+   * action was known before the server restarted, its previous state is restored.
    */
   @Override
   public synchronized boolean accept(
@@ -599,18 +711,44 @@ public final class ActionProcessor
     knownActionTypes.add(action.type());
     if (!actions.containsKey(action)) {
       information = new Information(action);
+      final ActionStateStore.SavedState saved = restoredStates.remove(information.id);
+      if (saved != null) {
+        information.lastState = saved.state();
+        information.lastChecked = saved.lastChecked();
+        information.lastStateTransition = saved.lastStateTransition();
+      }
       action.accepted(information.id);
       actions.put(action, information);
-      stateCount.labels(ActionState.UNKNOWN.name(), action.type()).inc();
+      idIndex.put(information.id, action);
+      typeIndex.add(action.type(), action);
+      information.indexedState = information.lastState;
+      stateIndex.add(information.lastState, action);
+      addedIndex.add(information.lastAdded, action);
+      checkedIndex.add(information.lastChecked, action);
+      statusChangedIndex.add(information.lastStateTransition, action);
+      updateActionTags(action, information);
+      stateCount.labels(information.lastState.name(), action.type()).inc();
+      schedule(action, information);
       isDuplicate = false;
     } else {
       information = actions.get(action);
+      final Instant oldAdded = information.lastAdded;
       information.lastAdded = Instant.now();
+      addedIndex.move(oldAdded, information.lastAdded, action);
       isDuplicate = true;
     }
     final SourceLocation location = new SourceLocation(filename, line, column, hash);
-    information.locations.add(location);
-    information.tags.addAll(Arrays.asList(tags));
+    if (information.locations.add(location)) {
+      locationIndex.add(location, action);
+      fileIndex.add(location.fileName(), action);
+    }
+    synchronized (information) {
+      for (final String tag : tags) {
+        if (!information.purged && information.tags.add(tag)) {
+          tagIndex.add(tag, action);
+        }
+      }
+    }
     sourceLocations.add(location);
     lastAdd.setToCurrentTime();
     return isDuplicate;
@@ -669,6 +807,11 @@ public final class ActionProcessor
   public Filter added(Optional<Instant> start, Optional<Instant> end) {
     return new InstantFilter(start, end) {
 
+      @Override
+      protected Optional<Set<Action>> candidates() {
+        return Optional.of(addedIndex.range(start, end));
+      }
+
       @Override
       protected Optional<Instant> get(Action action, Information info) {
         return Optional.of(info.lastAdded);
@@ -691,6 +834,11 @@ public final class ActionProcessor
     return new Filter() {
       private final List<Filter> filterList = filters.collect(Collectors.toList());
 
+      @Override
+      protected Optional<Set<Action>> candidates() {
+        return intersectCandidates(filterList.stream());
+      }
+
       @Override
       protected boolean check(Action action, Information info) {
         return filterList.stream().allMatch(f -> f.check(action, info));
@@ -707,6 +855,11 @@ public final class ActionProcessor
   public Filter checked(Optional<Instant> start, Optional<Instant> end) {
     return new InstantFilter(start, end) {
 
+      @Override
+      protected Optional<Set<Action>> candidates() {
+        return Optional.of(checkedIndex.range(start, end));
+      }
+
       @Override
       protected Optional<Instant> get(Action action, Information info) {
         return Optional.of(info.lastChecked);
@@ -742,12 +895,10 @@ public final class ActionProcessor
                 pluginManager.log("Performed command", labels);
               }
               if (!performedCommands.isEmpty()) {
-                if (e.getValue().lastState != ActionState.UNKNOWN) {
-                  stateCount.labels(e.getValue().lastState.name(), e.getKey().type()).dec();
-                  stateCount.labels(ActionState.UNKNOWN.name(), e.getKey().type()).inc();
-                  e.getValue().lastStateTransition = Instant.now();
+                changeState(e.getKey(), e.getValue(), ActionState.UNKNOWN);
+                if (!e.getValue().updateInProgress) {
+                  schedule(e.getKey(), e.getValue());
                 }
-                e.getValue().lastState = ActionState.UNKNOWN;
                 return true;
               }
               return false;
@@ -898,6 +1049,11 @@ public final class ActionProcessor
     final Set<String> set = Stream.of(files).collect(Collectors.toSet());
     return new Filter() {
 
+      @Override
+      protected Optional<Set<Action>> candidates() {
+        return Optional.of(fileIndex.find(set.stream()));
+      }
+
       @Override
       protected boolean check(Action action, Information info) {
         return info.locations.stream().map(SourceLocation::fileName).anyMatch(set::contains);
@@ -914,6 +1070,12 @@ public final class ActionProcessor
     final List<Predicate<SourceLocation>> list = locations.collect(Collectors.toList());
     return new Filter() {
 
+      @Override
+      protected Optional<Set<Action>> candidates() {
+        return Optional.of(
+            locationIndex.match(location -> list.stream().anyMatch(l -> l.test(location))));
+      }
+
       @Override
       protected boolean check(Action action, Information info) {
         return list.stream().anyMatch(l -> info.locations.stream().anyMatch(l));
@@ -987,6 +1149,12 @@ public final class ActionProcessor
   public Filter ids(List<String> ids) {
     return new Filter() {
 
+      @Override
+      protected Optional<Set<Action>> candidates() {
+        return Optional.of(
+            ids.stream().map(idIndex::get).filter(Objects::nonNull).collect(Collectors.toSet()));
+      }
+
       @Override
       protected boolean check(Action action, Information info) {
         return ids.contains(info.id);
@@ -1017,6 +1185,11 @@ public final class ActionProcessor
     set.addAll(Arrays.asList(states));
     return new Filter() {
 
+      @Override
+      protected Optional<Set<Action>> candidates() {
+        return Optional.of(stateIndex.find(set.stream()));
+      }
+
       @Override
       protected boolean check(Action action, Information info) {
         return set.contains(info.lastState);
@@ -1058,6 +1231,19 @@ public final class ActionProcessor
     return new Filter() {
       private final List<Filter> filterList = filters.collect(Collectors.toList());
 
+      @Override
+      protected Optional<Set<Action>> candidates() {
+        final Set<Action> result = new HashSet<>();
+        for (final Filter filter : filterList) {
+          final Optional<Set<Action>> candidates = filter.candidates();
+          if (!candidates.isPresent()) {
+            return Optional.empty();
+          }
+          result.addAll(candidates.get());
+        }
+        return Optional.of(result);
+      }
+
       @Override
       protected boolean check(Action action, Information info) {
         return filterList.stream().anyMatch(f -> f.check(action, info));
@@ -1084,9 +1270,10 @@ public final class ActionProcessor
   public long purge(Filter... filters) {
     final Set<Action> deadActions =
         startStream(filters)
-            .peek(e -> stateCount.labels(e.getValue().lastState.name(), e.getKey().type()).dec())
+            .peek(e -> unindex(e.getKey(), e.getValue()))
             .map(Entry::getKey)
             .collect(Collectors.toSet());
+    deadActions.forEach(scheduler::remove);
     deadActions.forEach(Action::purgeCleanup);
     actions.keySet().removeAll(deadActions);
     return deadActions.size();
@@ -1118,6 +1305,22 @@ public final class ActionProcessor
     return output;
   }
 
+  /**
+   * Queue an action to be performed once its retry interval has elapsed
+   *
+   * <p>Actions in a final state are not queued.
+   */
+  private void schedule(Action action, Information information) {
+    if (information.lastState == ActionState.SUCCEEDED
+        || information.lastState == ActionState.ZOMBIE) {
+      return;
+    }
+    scheduler.schedule(
+        action,
+        information,
+        information.lastChecked.plus(Math.max(10, action.retryMinutes()), ChronoUnit.MINUTES));
+  }
+
   public void resume(SourceLocation location) {
     pausedOlives.remove(location);
   }
@@ -1138,12 +1341,54 @@ public final class ActionProcessor
   public void start(ScheduledExecutorService executor) {
     executor.scheduleWithFixedDelay(this::update, 5, 1, TimeUnit.MINUTES);
     executor.scheduleWithFixedDelay(this::updateAlerts, 5, 5, TimeUnit.MINUTES);
+    executor.scheduleWithFixedDelay(stateStore::flush, 10, 10, TimeUnit.SECONDS);
+    executor.scheduleWithFixedDelay(this::snapshotState, 1, 1, TimeUnit.HOURS);
+  }
+
+  private void snapshotState() {
+    try (AutoCloseable inflight = Server.inflightCloseable("Snapshot action states")) {
+      // Actions restored from disk that no olive has produced again are kept for a while in case
+      // the olive is temporarily broken; after that, they are considered dead
+      final boolean keepRestored =
+          Duration.between(restoreTime, Instant.now()).compareTo(RESTORED_STATE_RETENTION) < 0;
+      if (!keepRestored) {
+        restoredStates.clear();
+      }
+      stateStore.snapshot(
+          Stream.concat(
+              actions
+                  .values()
+                  .stream()
+                  .map(
+                      info ->
+                          new ActionStateStore.Record(
+                              info.id,
+                              new ActionStateStore.SavedState(
+                                  info.lastState, info.lastChecked, info.lastStateTransition))),
+              restoredStates
+                  .entrySet()
+                  .stream()
+                  .map(e -> new ActionStateStore.Record(e.getKey(), e.getValue()))));
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
   }
 
   private Stream<Entry<Action, Information>> startStream(Filter... filters) {
-    return actions
-        .entrySet()
-        .stream()
+    return intersectCandidates(Stream.of(filters))
+        .map(
+            candidates ->
+                candidates
+                    .stream()
+                    .<Entry<Action, Information>>map(
+                        action -> {
+                          final Information information = actions.get(action);
+                          return information == null
+                              ? null
+                              : new AbstractMap.SimpleImmutableEntry<>(action, information);
+                        })
+                    .filter(Objects::nonNull))
+        .orElseGet(() -> actions.entrySet().stream())
         .filter(
             entry ->
                 Arrays.stream(filters)
@@ -1191,6 +1436,11 @@ public final class ActionProcessor
   public Filter statusChanged(Optional<Instant> start, Optional<Instant> end) {
     return new InstantFilter(start, end) {
 
+      @Override
+      protected Optional<Set<Action>> candidates() {
+        return Optional.of(statusChangedIndex.range(start, end));
+      }
+
       @Override
       protected Optional<Instant> get(Action action, Information info) {
         return Optional.of(info.lastStateTransition);
@@ -1276,6 +1526,11 @@ public final class ActionProcessor
   public Filter tags(Stream<String> tags) {
     final Set<String> tagSet = tags.collect(Collectors.toSet());
     return new Filter() {
+      @Override
+      protected Optional<Set<Action>> candidates() {
+        return Optional.of(tagIndex.find(tagSet.stream()));
+      }
+
       @Override
       protected boolean check(Action action, Information info) {
         return Stream.concat(info.tags.stream(), action.tags()).anyMatch(tagSet::contains);
@@ -1309,6 +1564,11 @@ public final class ActionProcessor
     final Set<String> set = Stream.of(types).collect(Collectors.toSet());
     return new Filter() {
 
+      @Override
+      protected Optional<Set<Action>> candidates() {
+        return Optional.of(typeIndex.find(set.stream()));
+      }
+
       @Override
       protected boolean check(Action action, Information info) {
         return set.contains(action.type());
@@ -1316,23 +1576,76 @@ public final class ActionProcessor
     };
   }
 
-  private void update() {
+  /**
+   * Set the state of an action, move it in the state index, and save it
+   *
+   * <p>Commands and the perform threads can change an action's state at the same time, so the
+   * action is always moved from the state it is filed under rather than whatever state the caller
+   * last saw. If the action has been purged, nothing is changed.
+   */
+  private void changeState(Action action, Information information, ActionState state) {
+    synchronized (information) {
+      if (information.purged) {
+        return;
+      }
+      information.lastState = state;
+      if (information.indexedState != state) {
+        stateIndex.move(information.indexedState, state, action);
+        stateCount.labels(information.indexedState.name(), action.type()).dec();
+        stateCount.labels(state.name(), action.type()).inc();
+        information.indexedState = state;
+        final Instant oldTransition = information.lastStateTransition;
+        information.lastStateTransition = Instant.now();
+        statusChangedIndex.move(oldTransition, information.lastStateTransition, action);
+      }
+      stateStore.write(
+          information.id, state, information.lastChecked, information.lastStateTransition);
+    }
+  }
+
+  /** Record that an action is being checked now and move it in the checked index */
+  private void markChecked(Action action, Information information) {
+    synchronized (information) {
+      if (information.purged) {
+        return;
+      }
+      final Instant oldChecked = information.lastChecked;
+      information.lastChecked = Instant.now();
+      checkedIndex.move(oldChecked, information.lastChecked, action);
+    }
+  }
+
+  private void unindex(Action action, Information information) {
+    idIndex.remove(information.id);
+    typeIndex.remove(action.type(), action);
+    addedIndex.remove(information.lastAdded, action);
+    for (final SourceLocation location : information.locations) {
+      locationIndex.remove(location, action);
+      fileIndex.remove(location.fileName(), action);
+    }
+    synchronized (information) {
+      information.purged = true;
+      stateStore.delete(information.id);
+      stateIndex.remove(information.indexedState, action);
+      stateCount.labels(information.indexedState.name(), action.type()).dec();
+      statusChangedIndex.remove(information.lastStateTransition, action);
+      checkedIndex.remove(information.lastChecked, action);
+      for (final String tag : information.tags) {
+        tagIndex.remove(tag, action);
+      }
+      for (final String tag : information.actionTags) {
+        tagIndex.remove(tag, action);
+      }
+    }
+  }
+
+  /** Perform any actions that are due; this is normally called periodically once started */
+  void update() {
 
-    final Instant now = Instant.now();
     final List<Entry<Action, Information>> candidates =
-        actions
-            .entrySet()
-            .stream()
-            .sorted(Comparator.comparingInt(e -> e.getKey().priority()))
-            .filter(
-                entry ->
-                    entry.getValue().lastState != ActionState.SUCCEEDED
-                        && entry.getValue().lastState != ActionState.ZOMBIE
-                        && !entry.getValue().updateInProgress
-                        && Duration.between(entry.getValue().lastChecked, now).toMinutes()
-                            >= Math.max(10, entry.getKey().retryMinutes()))
-            .limit(1000 * ACTION_PERFORM_THREADS - currentRunningActions.get())
-            .collect(Collectors.toList());
+        scheduler.take(
+            Instant.now(),
+            Math.max(0, 1000 * ACTION_PERFORM_THREADS - currentRunningActions.get()));
     currentRunningActionsGauge.set(currentRunningActions.addAndGet(candidates.size()));
 
     for (final Entry<Action, Information> entry : candidates) {
@@ -1350,10 +1663,20 @@ public final class ActionProcessor
               String.format(
                   "Waiting to perform %s action %s from %s",
                   entry.getKey().type(), entry.getValue().id, location));
+      final String type = entry.getKey().type();
+      final ThreadPoolExecutor workExecutor = workExecutor(type);
+      final AutoCloseable waitTimer = actionWaitTime.start(type);
       final CompletableFuture<Boolean> timeoutFuture = new CompletableFuture<>();
       final CompletableFuture<Boolean> workFuture =
           CompletableFuture.supplyAsync(
               () -> {
+                try {
+                  waitTimer.close();
+                } catch (Exception e) {
+                  e.printStackTrace();
+                }
+                actionQueueDepth.labels(type).set(workExecutor.getQueue().size());
+                actionInflight.labels(type).inc();
                 // We wait to schedule the timeout for when the action is actually
                 // starting
                 final Duration timeout = entry.getKey().performTimeout().abs();
@@ -1361,17 +1684,18 @@ public final class ActionProcessor
                     () -> timeoutFuture.complete(true),
                     Math.max(timeout.getSeconds(), 60),
                     TimeUnit.SECONDS);
-                entry.getValue().lastChecked = Instant.now();
-                final ActionState oldState = entry.getValue().lastState;
+                markChecked(entry.getKey(), entry.getValue());
                 final boolean oldThrown = entry.getValue().thrown != null;
                 queuedInflight.run();
-                try (AutoCloseable timer = actionPerformTime.start(entry.getKey().type());
+                ActionState newState;
+                try (AutoCloseable running = actionInflight.labels(type)::dec;
+                    AutoCloseable timer = actionPerformTime.start(type);
                     AutoCloseable inflight =
                         Server.inflightCloseable(
                             String.format(
                                 "Performing %s action %s from %s",
                                 entry.getKey().type(), entry.getValue().id, location))) {
-                  entry.getValue().lastState =
+                  newState =
                       entry
                               .getValue()
                               .locations
@@ -1384,24 +1708,25 @@ public final class ActionProcessor
                           : entry.getKey().perform(actionServices);
                   entry.getValue().thrown = null;
                 } catch (final Throwable e) {
-                  entry.getValue().lastState = ActionState.UNKNOWN;
+                  newState = ActionState.UNKNOWN;
                   entry.getValue().thrown = "Exception thrown during evaluation: " + e;
                   e.printStackTrace();
                   if (e instanceof Error) {
                     throw (Error) e;
                   }
                 }
-                if (oldState != entry.getValue().lastState) {
-                  entry.getValue().lastStateTransition = Instant.now();
-                  stateCount.labels(oldState.name(), entry.getKey().type()).dec();
-                  stateCount.labels(entry.getValue().lastState.name(), entry.getKey().type()).inc();
-                }
+                changeState(entry.getKey(), entry.getValue(), newState);
+                updateActionTags(entry.getKey(), entry.getValue());
                 actionThrows.inc((entry.getValue().thrown != null ? 0 : 1) - (oldThrown ? 0 : 1));
                 entry.getValue().updateInProgress = false;
+                if (actions.containsKey(entry.getKey())) {
+                  schedule(entry.getKey(), entry.getValue());
+                }
                 currentRunningActionsGauge.set(currentRunningActions.decrementAndGet());
                 return false;
               },
               workExecutor);
+      actionQueueDepth.labels(type).set(workExecutor.getQueue().size());
       CompletableFuture.anyOf(timeoutFuture, workFuture)
           .thenAcceptAsync(
               o -> {
@@ -1437,6 +1762,51 @@ public final class ActionProcessor
     }
   }
 
+  /**
+   * Update the tag index for tags provided by the action itself
+   *
+   * <p>Unlike the tags provided by olives, these can change as the action is performed.
+   */
+  private void updateActionTags(Action action, Information information) {
+    final Set<String> current = action.tags().collect(Collectors.toSet());
+    synchronized (information) {
+      if (information.purged) {
+        return;
+      }
+      for (final String tag : current) {
+        if (!information.actionTags.contains(tag)) {
+          tagIndex.add(tag, action);
+        }
+      }
+      for (final String tag : information.actionTags) {
+        if (!current.contains(tag) && !information.tags.contains(tag)) {
+          tagIndex.remove(tag, action);
+        }
+      }
+      information.actionTags = current;
+    }
+  }
+
+  /**
+   * Get the thread pool for an action type
+   *
+   * <p>Each action type has its own pool, so a slow plugin cannot occupy every thread and starve
+   * the other action types. Idle threads are released, so types that are rarely performed do not
+   * hold threads.
+   */
+  private ThreadPoolExecutor workExecutor(String type) {
+    return workExecutors.computeIfAbsent(
+        type,
+        t -> {
+          final int threads = ACTION_TYPE_THREADS.getOrDefault(t, ACTION_PERFORM_THREADS);
+          final ThreadPoolExecutor executor =
+              new ThreadPoolExecutor(
+                  threads, threads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+          executor.allowCoreThreadTimeOut(true);
+          return executor;
+        });
+  }
+
   private void updateAlerts() {
     try (AutoCloseable lock = alertLock.acquire();
         AutoCloseable inflight = Server.inflightCloseable("Push alerts")) {
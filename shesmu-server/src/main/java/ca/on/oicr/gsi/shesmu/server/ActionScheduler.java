@@ -0,0 +1,149 @@
+package ca.on.oicr.gsi.shesmu.server;
+
+import ca.on.oicr.gsi.shesmu.plugin.action.Action;
+import io.prometheus.client.Gauge;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+/**
+ * Tracks when actions are next eligible to be performed
+ *
+ * <p>Actions wait in a queue ordered by when they become eligible. When a round of processing
+ * starts, any action that has become eligible is moved to a second queue ordered by priority, and
+ * the highest priority actions are taken from there. Only actions that are due are examined in a
+ * round, rather than every action the server knows about.
+ *
+ * <p>Each action is in the scheduler at most once; rescheduling an action replaces any previous
+ * entry for it. An action is removed from the scheduler when it is taken, so it must be scheduled
+ * again once it has been performed. Replaced entries are left in the queues and discarded when they
+ * reach the front.
+ *
+ * @param <T> additional information to be associated with each action
+ */
+final class ActionScheduler<T> {
+  private static final class Ticket<T> {
+    private final Action action;
+    private final Instant due;
+    private final T payload;
+    private final int priority;
+    private boolean ready;
+    private final long sequence;
+
+    private Ticket(Action action, T payload, Instant due, int priority, long sequence) {
+      this.action = action;
+      this.payload = payload;
+      this.due = due;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+  }
+
+  private static final Gauge lag =
+      Gauge.build(
+              "shesmu_action_schedule_lag",
+              "The number of seconds the oldest eligible action has been waiting to be performed.")
+          .register();
+  private static final Gauge queueDepth =
+      Gauge.build(
+              "shesmu_action_schedule_depth",
+              "The number of actions that are eligible (ready) or not yet eligible (waiting) to be performed.")
+          .labelNames("queue")
+          .register();
+
+  private final Map<Action, Ticket<T>> current = new HashMap<>();
+  private final PriorityQueue<Ticket<T>> ready =
+      new PriorityQueue<>(
+          Comparator.<Ticket<T>>comparingInt(t -> t.priority)
+              .thenComparing(t -> t.due)
+              .thenComparingLong(t -> t.sequence));
+  private final PriorityQueue<Ticket<T>> readyByDue =
+      new PriorityQueue<>(
+          Comparator.<Ticket<T>, Instant>comparing(t -> t.due).thenComparingLong(t -> t.sequence));
+  private int readyCount;
+  private long sequence;
+  private final PriorityQueue<Ticket<T>> waiting =
+      new PriorityQueue<>(
+          Comparator.<Ticket<T>, Instant>comparing(t -> t.due).thenComparingLong(t -> t.sequence));
+
+  /**
+   * Stop tracking an action
+   *
+   * <p>The queues are cleaned lazily, so this is constant time.
+   */
+  public synchronized void remove(Action action) {
+    discard(current.remove(action));
+    updateDepth();
+  }
+
+  private void discard(Ticket<T> ticket) {
+    if (ticket != null && ticket.ready) {
+      readyCount--;
+    }
+  }
+
+  private boolean isCurrent(Ticket<T> ticket) {
+    return current.get(ticket.action) == ticket;
+  }
+
+  /**
+   * Schedule an action to be performed
+   *
+   * @param action the action to perform
+   * @param payload the information to return with the action when it is taken
+   * @param due the time at which the action becomes eligible to be performed
+   */
+  public synchronized void schedule(Action action, T payload, Instant due) {
+    final Ticket<T> ticket = new Ticket<>(action, payload, due, action.priority(), sequence++);
+    discard(current.put(action, ticket));
+    waiting.add(ticket);
+    updateDepth();
+  }
+
+  /**
+   * Remove the highest priority actions that are eligible to be performed
+   *
+   * @param now the current time; any action due at or before this time is eligible
+   * @param limit the maximum number of actions to remove
+   * @return the actions to perform, in priority order
+   */
+  public synchronized List<Entry<Action, T>> take(Instant now, int limit) {
+    while (!waiting.isEmpty() && !waiting.peek().due.isAfter(now)) {
+      final Ticket<T> ticket = waiting.poll();
+      if (isCurrent(ticket)) {
+        ticket.ready = true;
+        readyCount++;
+        ready.add(ticket);
+        readyByDue.add(ticket);
+      }
+    }
+    final List<Entry<Action, T>> output = new ArrayList<>();
+    while (output.size() < limit && !ready.isEmpty()) {
+      final Ticket<T> ticket = ready.poll();
+      if (current.remove(ticket.action, ticket)) {
+        readyCount--;
+        output.add(new AbstractMap.SimpleImmutableEntry<>(ticket.action, ticket.payload));
+      }
+    }
+    // Taken and replaced tickets are still in the by-due queue, so drop them from the front until
+    // the oldest ticket that is still waiting to be taken is found
+    while (!readyByDue.isEmpty() && !isCurrent(readyByDue.peek())) {
+      readyByDue.poll();
+    }
+    lag.set(readyByDue.isEmpty() ? 0 : Duration.between(readyByDue.peek().due, now).getSeconds());
+    updateDepth();
+    return output;
+  }
+
+  private void updateDepth() {
+    queueDepth.labels("ready").set(readyCount);
+    queueDepth.labels("waiting").set(current.size() - readyCount);
+  }
+}
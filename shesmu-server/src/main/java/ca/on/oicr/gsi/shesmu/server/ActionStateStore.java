@@ -0,0 +1,473 @@
+package ca.on.oicr.gsi.shesmu.server;
+
+import ca.on.oicr.gsi.shesmu.plugin.Utils;
+import ca.on.oicr.gsi.shesmu.plugin.action.ActionState;
+import ca.on.oicr.gsi.shesmu.util.AutoLock;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable storage of action states so a restarted server does not have to rediscover the state of
+ * every action from scratch
+ *
+ * <p>Every state change is appended to a journal. Periodically, the state of every action is
+ * written to a snapshot and the journal is discarded. When the server starts, the snapshot is read
+ * and the journal is replayed over it. Records are keyed by the action's identifier and check
+ * summed, so a record torn by a crash is discarded along with anything after it.
+ */
+public abstract class ActionStateStore {
+  /** The state of an action as it was last recorded */
+  public static final class SavedState {
+    private final Instant lastChecked;
+    private final Instant lastStateTransition;
+    private final ActionState state;
+
+    public SavedState(ActionState state, Instant lastChecked, Instant lastStateTransition) {
+      this.state = state;
+      this.lastChecked = lastChecked;
+      this.lastStateTransition = lastStateTransition;
+    }
+
+    public Instant lastChecked() {
+      return lastChecked;
+    }
+
+    public Instant lastStateTransition() {
+      return lastStateTransition;
+    }
+
+    public ActionState state() {
+      return state;
+    }
+  }
+
+  private static final class FileActionStateStore extends ActionStateStore {
+    private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+    private final Path directory;
+    private FileChannel journal;
+    private final AutoLock lock = new AutoLock();
+
+    private FileActionStateStore(Path directory) {
+      this.directory = directory;
+    }
+
+    private FileChannel createJournal() throws IOException {
+      final FileChannel channel =
+          FileChannel.open(
+              directory.resolve(JOURNAL),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING);
+      channel.write(header());
+      channel.force(false);
+      return channel;
+    }
+
+    @Override
+    public void delete(String id) {
+      append(id, TOMBSTONE, Instant.EPOCH, Instant.EPOCH);
+    }
+
+    private void append(String id, byte state, Instant lastChecked, Instant lastStateTransition) {
+      final byte[] digest = parseId(id);
+      if (digest == null) {
+        return;
+      }
+      try (AutoCloseable l = lock.acquire()) {
+        if (journal == null) {
+          return;
+        }
+        if (buffer.remaining() < RECORD_SIZE) {
+          drain();
+        }
+        final int start = buffer.position();
+        buffer.put(digest);
+        buffer.put(state);
+        buffer.putLong(lastChecked.toEpochMilli());
+        buffer.putLong(lastStateTransition.toEpochMilli());
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start, RECORD_SIZE - Integer.BYTES);
+        buffer.putInt((int) crc.getValue());
+        journalRecords.inc();
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+
+    private void drain() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        journal.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    @Override
+    public void flush() {
+      try (AutoCloseable l = lock.acquire()) {
+        if (journal != null) {
+          drain();
+          journal.force(false);
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+
+    @Override
+    public Map<String, SavedState> load() {
+      final Map<String, SavedState> states = new HashMap<>();
+      try {
+        Files.createDirectories(directory);
+        read(directory.resolve(SNAPSHOT), states);
+        read(directory.resolve(OLD_JOURNAL), states);
+        read(directory.resolve(JOURNAL), states);
+        // The previous journal may have a torn tail, so start a fresh one containing everything it
+        // had that was readable
+        final Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        writeSnapshot(
+            temporary, states.entrySet().stream().map(e -> new Record(e.getKey(), e.getValue())));
+        Files.move(
+            temporary,
+            directory.resolve(SNAPSHOT),
+            StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(directory.resolve(OLD_JOURNAL));
+        try (AutoCloseable l = lock.acquire()) {
+          journal = createJournal();
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+      restoredCount.set(states.size());
+      Runtime.getRuntime()
+          .addShutdownHook(
+              new Thread() {
+
+                @Override
+                public void run() {
+                  flush();
+                }
+              });
+      return states;
+    }
+
+    private void read(Path file, Map<String, SavedState> states) {
+      if (!Files.exists(file)) {
+        return;
+      }
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        final MappedByteBuffer input =
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        final ActionState[] stateNames = readHeader(input);
+        if (stateNames == null) {
+          System.err.printf("Action state file %s has an invalid header. Ignoring.\n", file);
+          return;
+        }
+        final CRC32 crc = new CRC32();
+        final byte[] record = new byte[RECORD_SIZE - Integer.BYTES];
+        final byte[] digest = new byte[DIGEST_SIZE];
+        while (input.remaining() >= RECORD_SIZE) {
+          input.get(record);
+          crc.reset();
+          crc.update(record, 0, record.length);
+          if ((int) crc.getValue() != input.getInt()) {
+            System.err.printf(
+                "Action state file %s has a damaged record at %d. Discarding remainder.\n",
+                file, input.position() - RECORD_SIZE);
+            return;
+          }
+          final ByteBuffer fields = ByteBuffer.wrap(record);
+          fields.get(digest);
+          final String id = "shesmu:" + Utils.bytesToHex(digest);
+          final byte state = fields.get();
+          if (state == TOMBSTONE) {
+            states.remove(id);
+          } else if (state >= 0 && state < stateNames.length && stateNames[state] != null) {
+            states.put(
+                id,
+                new SavedState(
+                    stateNames[state],
+                    Instant.ofEpochMilli(fields.getLong()),
+                    Instant.ofEpochMilli(fields.getLong())));
+          }
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    @Override
+    public void snapshot(Stream<Record> records) {
+      try {
+        // Rotate the journal first; anything written after this point will be in the new journal
+        // and anything before it will be in the snapshot (or the old journal if we crash while
+        // writing the snapshot)
+        try (AutoCloseable l = lock.acquire()) {
+          if (journal == null) {
+            return;
+          }
+          drain();
+          journal.force(false);
+          journal.close();
+          Files.move(
+              directory.resolve(JOURNAL),
+              directory.resolve(OLD_JOURNAL),
+              StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+          journal = createJournal();
+        }
+        final Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        writeSnapshot(temporary, records);
+        Files.move(
+            temporary,
+            directory.resolve(SNAPSHOT),
+            StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(directory.resolve(OLD_JOURNAL));
+        lastSnapshot.setToCurrentTime();
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+
+    @Override
+    public void write(
+        String id, ActionState state, Instant lastChecked, Instant lastStateTransition) {
+      append(id, (byte) state.ordinal(), lastChecked, lastStateTransition);
+    }
+
+    private void writeSnapshot(Path file, Stream<Record> records) throws IOException {
+      try (FileChannel channel =
+          FileChannel.open(
+              file,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        channel.write(header());
+        final ByteBuffer output = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        final CRC32 crc = new CRC32();
+        final Iterable<Record> iterable = records::iterator;
+        for (final Record record : iterable) {
+          final byte[] digest = parseId(record.id);
+          if (digest == null) {
+            continue;
+          }
+          if (output.remaining() < RECORD_SIZE) {
+            output.flip();
+            while (output.hasRemaining()) {
+              channel.write(output);
+            }
+            output.clear();
+          }
+          final int start = output.position();
+          output.put(digest);
+          output.put((byte) record.state.state().ordinal());
+          output.putLong(record.state.lastChecked().toEpochMilli());
+          output.putLong(record.state.lastStateTransition().toEpochMilli());
+          crc.reset();
+          crc.update(output.array(), start, RECORD_SIZE - Integer.BYTES);
+          output.putInt((int) crc.getValue());
+        }
+        output.flip();
+        while (output.hasRemaining()) {
+          channel.write(output);
+        }
+        channel.force(true);
+      }
+    }
+  }
+
+  /** An action's identifier and state to be written into a snapshot */
+  public static final class Record {
+    private final String id;
+    private final SavedState state;
+
+    public Record(String id, SavedState state) {
+      this.id = id;
+      this.state = state;
+    }
+  }
+
+  private static final int DIGEST_SIZE = 20;
+  private static final String JOURNAL = "actions.journal";
+  private static final int MAGIC = 0x53484153;
+  private static final String OLD_JOURNAL = "actions.journal.old";
+  private static final int RECORD_SIZE = DIGEST_SIZE + 1 + 2 * Long.BYTES + Integer.BYTES;
+  private static final String SNAPSHOT = "actions.snapshot";
+  private static final byte TOMBSTONE = -1;
+  private static final int VERSION = 1;
+  private static final Counter journalRecords =
+      Counter.build(
+              "shesmu_action_state_journal_records",
+              "The number of action state changes written to the journal.")
+          .register();
+  private static final Gauge lastSnapshot =
+      Gauge.build(
+              "shesmu_action_state_snapshot_last_time",
+              "The last time the action states were written to a snapshot.")
+          .register();
+  private static final Gauge restoredCount =
+      Gauge.build(
+              "shesmu_action_state_restored",
+              "The number of action states recovered from disk at start up.")
+          .register();
+
+  /**
+   * Create a state store in the directory specified by the <tt>SHESMU_ACTION_STATE</tt> environment
+   * variable or one that discards everything if not set.
+   */
+  public static ActionStateStore create() {
+    return Optional.ofNullable(System.getenv("SHESMU_ACTION_STATE"))
+        .map(directory -> create(Paths.get(directory)))
+        .orElseGet(
+            () ->
+                new ActionStateStore() {
+                  @Override
+                  public void delete(String id) {
+                    // Do nothing
+                  }
+
+                  @Override
+                  public void flush() {
+                    // Do nothing
+                  }
+
+                  @Override
+                  public Map<String, SavedState> load() {
+                    return new HashMap<>();
+                  }
+
+                  @Override
+                  public void snapshot(Stream<Record> records) {
+                    records.close();
+                  }
+
+                  @Override
+                  public void write(
+                      String id,
+                      ActionState state,
+                      Instant lastChecked,
+                      Instant lastStateTransition) {
+                    // Do nothing
+                  }
+                });
+  }
+
+  /**
+   * Create a state store that keeps its files in a directory
+   *
+   * @param directory the directory to hold the snapshot and journal; it will be created if it does
+   *     not exist
+   */
+  public static ActionStateStore create(Path directory) {
+    return new FileActionStateStore(directory);
+  }
+
+  private static ByteBuffer header() {
+    final ActionState[] states = ActionState.values();
+    final byte[][] names = new byte[states.length][];
+    int size = 3 * Integer.BYTES;
+    for (int i = 0; i < states.length; i++) {
+      names[i] = states[i].name().getBytes(StandardCharsets.UTF_8);
+      size += Short.BYTES + names[i].length;
+    }
+    final ByteBuffer header = ByteBuffer.allocate(size);
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.putInt(states.length);
+    for (final byte[] name : names) {
+      header.putShort((short) name.length);
+      header.put(name);
+    }
+    header.flip();
+    return header;
+  }
+
+  private static byte[] parseId(String id) {
+    if (!id.startsWith("shesmu:") || id.length() != 7 + 2 * DIGEST_SIZE) {
+      return null;
+    }
+    final byte[] digest = new byte[DIGEST_SIZE];
+    for (int i = 0; i < DIGEST_SIZE; i++) {
+      digest[i] = (byte) Integer.parseInt(id.substring(7 + 2 * i, 9 + 2 * i), 16);
+    }
+    return digest;
+  }
+
+  /**
+   * Read the list of states stored in a file header
+   *
+   * <p>States are stored by name so that changes to {@link ActionState} don't reinterpret old
+   * files; states that no longer exist are mapped to null.
+   */
+  private static ActionState[] readHeader(ByteBuffer input) {
+    if (input.remaining() < 3 * Integer.BYTES
+        || input.getInt() != MAGIC
+        || input.getInt() != VERSION) {
+      return null;
+    }
+    final int count = input.getInt();
+    if (count < 0 || count > Byte.MAX_VALUE) {
+      return null;
+    }
+    final ActionState[] states = new ActionState[count];
+    for (int i = 0; i < count; i++) {
+      if (input.remaining() < Short.BYTES) {
+        return null;
+      }
+      final byte[] name = new byte[input.getShort() & 0xFFFF];
+      if (input.remaining() < name.length) {
+        return null;
+      }
+      input.get(name);
+      final String stateName = new String(name, StandardCharsets.UTF_8);
+      for (final ActionState state : ActionState.values()) {
+        if (state.name().equals(stateName)) {
+          states[i] = state;
+        }
+      }
+    }
+    return states;
+  }
+
+  /** Record that an action has been purged and its state should be forgotten */
+  public abstract void delete(String id);
+
+  /** Force any buffered state changes to disk */
+  public abstract void flush();
+
+  /**
+   * Read all the saved action states and prepare to record new ones
+   *
+   * @return the saved states, keyed by action identifier
+   */
+  public abstract Map<String, SavedState> load();
+
+  /**
+   * Replace the saved state with a complete set of action states
+   *
+   * @param records the state of every action that should be retained
+   */
+  public abstract void snapshot(Stream<Record> records);
+
+  /** Record that an action has changed state */
+  public abstract void write(
+      String id, ActionState state, Instant lastChecked, Instant lastStateTransition);
+}
@@ -9,6 +9,7 @@ import ca.on.oicr.gsi.shesmu.compiler.definitions.InputFormatDefinition;
 import ca.on.oicr.gsi.shesmu.compiler.definitions.InputVariable;
 import ca.on.oicr.gsi.shesmu.plugin.PluginFile;
 import ca.on.oicr.gsi.shesmu.plugin.Tuple;
+import ca.on.oicr.gsi.shesmu.plugin.Utils;
 import ca.on.oicr.gsi.shesmu.plugin.cache.*;
 import ca.on.oicr.gsi.shesmu.plugin.files.AutoUpdatingDirectory;
 import ca.on.oicr.gsi.shesmu.plugin.files.WatchedFileListener;
@@ -26,9 +27,12 @@ import ca.on.oicr.gsi.status.TableRowWriter;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.prometheus.client.Counter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.invoke.CallSite;
 import java.lang.invoke.ConstantCallSite;
 import java.lang.invoke.MethodHandle;
@@ -38,12 +42,17 @@ import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.xml.stream.XMLStreamException;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.objectweb.asm.Handle;
@@ -58,6 +67,21 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
     void write(JsonGenerator generator, Object value);
   }
 
+  /** The records downloaded from a remote server and the validators the server sent with them */
+  private static final class RemoteRecords {
+    private static final RemoteRecords EMPTY =
+        new RemoteRecords(null, null, Collections.emptyList());
+    private final String entityTag;
+    private final String lastModified;
+    private final List<Object> records;
+
+    private RemoteRecords(String entityTag, String lastModified, List<Object> records) {
+      this.entityTag = entityTag;
+      this.lastModified = lastModified;
+      this.records = records;
+    }
+  }
+
   private static class AnnotatedInputVariable implements InputVariable {
 
     private final Flavour flavour;
@@ -103,8 +127,8 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
       // Exciting! Don't care.
     }
 
-    public Object read(ObjectNode node) {
-      return type.apply(new UnpackJson(node.get(name), timeFormat));
+    public Object read(JsonNode value) {
+      return type.apply(new UnpackJson(value, timeFormat));
     }
 
     @Override
@@ -148,17 +172,7 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
               try (final InputStream input = source.fetch(key);
                   final JsonParser parser =
                       RuntimeSupport.MAPPER.getFactory().createParser(input)) {
-                final List<Object> results = new ArrayList<>();
-                if (parser.nextToken() != JsonToken.START_ARRAY) {
-                  throw new IllegalStateException("Expected an array");
-                }
-                while (parser.nextToken() != JsonToken.END_ARRAY) {
-                  results.add(readJson(RuntimeSupport.MAPPER.readTree(parser)));
-                }
-                if (parser.nextToken() != null) {
-                  throw new IllegalStateException("Junk at end of JSON document");
-                }
-                return results.stream();
+                return readJsonArray(parser).stream();
               }
             }
 
@@ -193,17 +207,7 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
               try (final InputStream input = source.fetch();
                   final JsonParser parser =
                       RuntimeSupport.MAPPER.getFactory().createParser(input)) {
-                final List<Object> results = new ArrayList<>();
-                if (parser.nextToken() != JsonToken.START_ARRAY) {
-                  throw new IllegalStateException("Expected an array");
-                }
-                while (parser.nextToken() != JsonToken.END_ARRAY) {
-                  results.add(readJson(RuntimeSupport.MAPPER.readTree(parser)));
-                }
-                if (parser.nextToken() != null) {
-                  throw new IllegalStateException("Junk at end of JSON document");
-                }
-                return results.stream();
+                return readJsonArray(parser).stream();
               }
             }
           };
@@ -220,6 +224,59 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
     }
   }
 
+  /**
+   * Converts JSON objects into tuples, sharing equal values between the records
+   *
+   * <p>Input data often repeats the same values (project names, workflow names, paths) across many
+   * records. Rather than keep a separate copy of each one, every record read by the same reader
+   * references the first copy seen. After the first few records, any variable whose values are
+   * mostly distinct is no longer tracked, since the lookup table would use more memory than it
+   * saves.
+   *
+   * <p>Records are read from the parser one field at a time, so only the values of the variables
+   * are converted to JSON trees and any other fields are skipped without being decoded.
+   */
+  private class JsonRecordReader {
+    private int records;
+    private final List<Map<Object, Object>> seen = new ArrayList<>();
+
+    public JsonRecordReader() {
+      for (int i = 0; i < variables.size(); i++) {
+        seen.add(new HashMap<>());
+      }
+    }
+
+    public Tuple read(JsonParser parser) throws IOException {
+      if (parser.currentToken() != JsonToken.START_OBJECT) {
+        throw new IllegalStateException("Expected an object");
+      }
+      final JsonNode[] fields = new JsonNode[variables.size()];
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final Integer index = variableIndices.get(parser.getCurrentName());
+        parser.nextToken();
+        if (index == null) {
+          parser.skipChildren();
+        } else {
+          fields[index] = RuntimeSupport.MAPPER.readTree(parser);
+        }
+      }
+      final Object[] values = new Object[variables.size()];
+      for (int i = 0; i < values.length; i++) {
+        final Object value = variables.get(i).read(fields[i]);
+        final Map<Object, Object> existing = seen.get(i);
+        values[i] = existing == null ? value : existing.computeIfAbsent(value, k -> value);
+      }
+      if (++records == DEDUPLICATION_SAMPLE) {
+        for (int i = 0; i < seen.size(); i++) {
+          if (seen.get(i).size() > DEDUPLICATION_SAMPLE / 2) {
+            seen.set(i, null);
+          }
+        }
+      }
+      return new Tuple(values);
+    }
+  }
+
   private class LocalJsonFile implements WatchedFileListener {
     private final ConfigurationSection configuration;
     private volatile boolean dirty = true;
@@ -236,12 +293,9 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
             @Override
             protected Optional<List<Object>> fetch(Instant lastUpdated) throws Exception {
               dirty = false;
-              try {
-                List<Object> result =
-                    Stream.of(
-                            RuntimeSupport.MAPPER.readValue(fileName.toFile(), ObjectNode[].class))
-                        .map(AnnotatedInputFormatDefinition.this::readJson)
-                        .collect(Collectors.toList());
+              try (final JsonParser parser =
+                  RuntimeSupport.MAPPER.getFactory().createParser(fileName.toFile())) {
+                final List<Object> result = readJsonArray(parser);
                 JsonPluginFile.GOOD_JSON.labels(fileName.toString()).set(1);
                 return Optional.of(result);
               } catch (Exception e) {
@@ -286,7 +340,19 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
   }
 
   private class RemoteJsonSource implements WatchedFileListener {
+    /**
+     * Downloads the records from the remote server
+     *
+     * <p>The validators the server sends (<tt>ETag</tt> and <tt>Last-Modified</tt>) are kept with
+     * the records and sent back on the next request, so, if nothing has changed, the server can
+     * reply <tt>304 Not Modified</tt> and the records already downloaded are reused without being
+     * transferred or parsed again.
+     */
     private class RemoteReloader extends ValueCache<Stream<Object>, Stream<Object>> {
+      // Replaced as a whole, since the configuration is reset on the file watcher thread while
+      // the records are fetched on another
+      private volatile RemoteRecords previous = RemoteRecords.EMPTY;
+
       public RemoteReloader(Path fileName) {
         super("remotejson " + format.name() + " " + fileName.toString(), 10, ReplacingRecord::new);
       }
@@ -295,28 +361,51 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
       protected Stream<Object> fetch(Instant lastUpdated) throws Exception {
         if (!config.isPresent()) return Stream.empty();
         final String url = config.get().getUrl();
-        try (CloseableHttpResponse response = Server.HTTP_CLIENT.execute(new HttpGet(url));
-            JsonParser parser =
-                RuntimeSupport.MAPPER
-                    .getFactory()
-                    .createParser(response.getEntity().getContent())) {
-          final List<Object> results = new ArrayList<>();
-          if (parser.nextToken() != JsonToken.START_ARRAY) {
-            throw new IllegalStateException("Expected an array");
+        final HttpGet request = new HttpGet(url);
+        // Older servers only know JSON and will ignore this
+        request.addHeader("Accept", SMILE_CONTENT_TYPE + ", application/json;q=0.9");
+        final RemoteRecords current = previous;
+        if (current.entityTag != null) {
+          request.addHeader("If-None-Match", current.entityTag);
+        }
+        if (current.lastModified != null) {
+          request.addHeader("If-Modified-Since", current.lastModified);
+        }
+        try (CloseableHttpResponse response = Server.HTTP_CLIENT.execute(request)) {
+          final int status = response.getStatusLine().getStatusCode();
+          if (status == HttpStatus.SC_NOT_MODIFIED) {
+            remoteNotModified.labels(url).inc();
+            return current.records.stream();
           }
-          while (parser.nextToken() != JsonToken.END_ARRAY) {
-            results.add(readJson(RuntimeSupport.MAPPER.readTree(parser)));
+          if (status != HttpStatus.SC_OK) {
+            throw new IllegalStateException(String.format("Failed to fetch %s: %d", url, status));
           }
-          if (parser.nextToken() != null) {
-            throw new IllegalStateException("Junk at end of JSON document");
+          try (JsonParser parser =
+              (isSmile(response.getEntity().getContentType())
+                      ? SMILE_FACTORY
+                      : RuntimeSupport.MAPPER.getFactory())
+                  .createParser(response.getEntity().getContent())) {
+            final List<Object> result = readJsonArray(parser);
+            final Header entityTagHeader = response.getFirstHeader("ETag");
+            final Header lastModifiedHeader = response.getFirstHeader("Last-Modified");
+            previous =
+                new RemoteRecords(
+                    entityTagHeader == null ? null : entityTagHeader.getValue(),
+                    lastModifiedHeader == null ? null : lastModifiedHeader.getValue(),
+                    result);
+            return result.stream();
           }
-          return results.stream();
         }
       }
+
+      /** Forget the validators and records, so the next request will download the records again */
+      public void reset() {
+        previous = RemoteRecords.EMPTY;
+      }
     }
 
-    private final ValueCache<Stream<Object>, Stream<Object>> cache;
-    private Optional<Configuration> config = Optional.empty();
+    private final RemoteReloader cache;
+    private volatile Optional<Configuration> config = Optional.empty();
     private final Path fileName;
 
     public RemoteJsonSource(Path fileName) {
@@ -353,6 +442,7 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
       try {
         config =
             Optional.of(RuntimeSupport.MAPPER.readValue(fileName.toFile(), Configuration.class));
+        cache.reset();
         cache.invalidate();
         cache.ttl(config.get().getTtl());
       } catch (IOException e) {
@@ -379,12 +469,24 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
               Type.getType(MethodType.class),
               Type.getType(String.class)),
           false);
+  private static final int DEDUPLICATION_SAMPLE = 1000;
   private static final List<AnnotatedInputFormatDefinition> FORMATS = new ArrayList<>();
   public static final JarHashRepository<InputFormat> INPUT_FORMAT_HASHES =
       new JarHashRepository<>();
   private static final Map<Pair<String, String>, CallSite> INPUT_VARIABLES_REGISTRY =
       new ConcurrentHashMap<>();
   private static final Lookup LOOKUP = MethodHandles.publicLookup();
+  private static final Counter remoteNotModified =
+      Counter.build(
+              "shesmu_remote_input_not_modified",
+              "The number of times a remote input source was refreshed and the server reported the data had not changed.")
+          .labelNames("url")
+          .register();
+  /** The MIME type for records in Jackson's binary JSON format */
+  public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+  /** A factory for reading and writing records in Jackson's binary JSON format */
+  public static final SmileFactory SMILE_FACTORY = new SmileFactory();
+
   private static final MethodHandle MH_IMYHAT__ACCEPT;
   private static final MethodHandle MH_PACK_STREAMING__CTOR;
   private static final MethodHandle MH_TUPLE_GET;
@@ -447,6 +549,7 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
   private final List<GangDefinition> gangs;
   private final AutoUpdatingDirectory<LocalJsonFile> local;
   private final AutoUpdatingDirectory<RemoteJsonSource> remotes;
+  private final Map<String, Integer> variableIndices = new HashMap<>();
   private final List<AnnotatedInputVariable> variables = new ArrayList<>();
 
   public AnnotatedInputFormatDefinition(InputFormat format) throws IllegalAccessException {
@@ -476,6 +579,7 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
       final AnnotatedInputVariable variable =
           new AnnotatedInputVariable(
               name, methodType, format, flavour, type, entry.first().timeFormat());
+      variableIndices.put(name, variables.size());
       variables.add(variable);
       // Now we need to make a call site for this variable. It will happen in two
       // cases: either we have an instance of the real type and we should call the
@@ -600,12 +704,23 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
     return format.name();
   }
 
-  private Tuple readJson(ObjectNode node) {
-    final Object[] values = new Object[variables.size()];
-    for (int i = 0; i < values.length; i++) {
-      values[i] = variables.get(i).read(node);
+  private static boolean isSmile(Header contentType) {
+    return contentType != null && contentType.getValue().startsWith(SMILE_CONTENT_TYPE);
+  }
+
+  private List<Object> readJsonArray(JsonParser parser) throws IOException {
+    final JsonRecordReader reader = new JsonRecordReader();
+    final List<Object> results = new ArrayList<>();
+    if (parser.nextToken() != JsonToken.START_ARRAY) {
+      throw new IllegalStateException("Expected an array");
+    }
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      results.add(reader.read(parser));
+    }
+    if (parser.nextToken() != null) {
+      throw new IllegalStateException("Junk at end of JSON document");
     }
-    return new Tuple(values);
+    return results;
   }
 
   @Override
@@ -619,24 +734,69 @@ public final class AnnotatedInputFormatDefinition implements InputFormatDefiniti
         remotes.stream().flatMap(source -> source.variables(readStale)));
   }
 
+  /**
+   * Read records in the format written by {@link #writeJson(JsonGenerator, Stream)}
+   *
+   * @param parser the JSON document containing an array of records
+   */
+  public List<Object> readJson(JsonParser parser) throws IOException {
+    return readJsonArray(parser);
+  }
+
   public void writeJson(JsonGenerator generator, InputSource inputProvider, boolean readStale)
       throws IOException {
+    writeJson(generator, inputProvider.fetch(format.name(), readStale));
+  }
+
+  /**
+   * Compute a digest of records that changes whenever any field of any record does
+   *
+   * @param records the records, which must be from this input format
+   * @return the SHA-256 digest of the records in the binary format, as hexadecimal
+   */
+  public String digest(Stream<Object> records) {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      try (JsonGenerator generator =
+          SMILE_FACTORY.createGenerator(
+              new DigestOutputStream(
+                  new OutputStream() {
+                    @Override
+                    public void write(int b) {}
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {}
+                  },
+                  digest))) {
+        writeJson(generator, records);
+      }
+      return Utils.bytesToHex(digest.digest());
+    } catch (IOException | NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Write records as a JSON array
+   *
+   * @param generator the output to write to
+   * @param records the records, which must be from this input format
+   */
+  public void writeJson(JsonGenerator generator, Stream<Object> records) throws IOException {
     generator.writeStartArray();
-    inputProvider
-        .fetch(format.name(), readStale)
-        .forEach(
-            value -> {
-              try {
-                generator.writeStartObject();
-                for (Pair<String, JsonFieldWriter> fieldWriter : fieldWriters) {
-                  generator.writeFieldName(fieldWriter.first());
-                  fieldWriter.second().write(generator, value);
-                }
-                generator.writeEndObject();
-              } catch (IOException e) {
-                throw new RuntimeException(e);
-              }
-            });
+    records.forEach(
+        value -> {
+          try {
+            generator.writeStartObject();
+            for (Pair<String, JsonFieldWriter> fieldWriter : fieldWriters) {
+              generator.writeFieldName(fieldWriter.first());
+              fieldWriter.second().write(generator, value);
+            }
+            generator.writeEndObject();
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        });
     generator.writeEndArray();
   }
 }
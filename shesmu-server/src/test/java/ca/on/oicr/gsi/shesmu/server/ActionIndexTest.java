@@ -0,0 +1,78 @@
+package ca.on.oicr.gsi.shesmu.server;
+
+import ca.on.oicr.gsi.shesmu.plugin.action.Action;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ActionIndexTest {
+  private final Action a = new TestAction("a", 0);
+  private final Action b = new TestAction("b", 0);
+  private final Action c = new TestAction("c", 0);
+
+  private static Set<Action> set(Action... actions) {
+    return new HashSet<>(Arrays.asList(actions));
+  }
+
+  @Test
+  public void testFind() {
+    final ActionIndex<String> index = ActionIndex.hashed();
+    index.add("x", a);
+    index.add("x", b);
+    index.add("y", c);
+    Assert.assertEquals(set(a, b), index.find(Stream.of("x")));
+    Assert.assertEquals(set(a, b, c), index.find(Stream.of("x", "y", "z")));
+    Assert.assertEquals(Collections.emptySet(), index.find(Stream.of("z")));
+    Assert.assertEquals(set(c), index.match("y"::equals));
+  }
+
+  @Test
+  public void testMove() {
+    final ActionIndex<Integer> index = ActionIndex.sorted();
+    index.add(1, a);
+    index.add(1, b);
+    index.move(1, 5, a);
+    Assert.assertEquals(set(b), index.find(Stream.of(1)));
+    Assert.assertEquals(set(a), index.find(Stream.of(5)));
+    // Moving to the same key leaves the action where it is
+    index.move(5, 5, a);
+    Assert.assertEquals(set(a), index.find(Stream.of(5)));
+    index.move(1, 5, b);
+    Assert.assertEquals(set(a, b), index.find(Stream.of(5)));
+    // Empty keys are dropped, so they don't show up in ranges
+    Assert.assertEquals(set(a, b), index.range(Optional.empty(), Optional.empty()));
+    Assert.assertEquals(Collections.emptySet(), index.range(Optional.of(0), Optional.of(5)));
+  }
+
+  @Test
+  public void testRange() {
+    final ActionIndex<Integer> index = ActionIndex.sorted();
+    index.add(1, a);
+    index.add(3, b);
+    index.add(5, c);
+    Assert.assertEquals(set(a, b, c), index.range(Optional.empty(), Optional.empty()));
+    // The start is inclusive and the end is exclusive
+    Assert.assertEquals(set(b, c), index.range(Optional.of(3), Optional.empty()));
+    Assert.assertEquals(set(a, b), index.range(Optional.empty(), Optional.of(5)));
+    Assert.assertEquals(set(b), index.range(Optional.of(2), Optional.of(4)));
+    Assert.assertEquals(Collections.emptySet(), index.range(Optional.of(3), Optional.of(3)));
+    Assert.assertEquals(Collections.emptySet(), index.range(Optional.of(6), Optional.empty()));
+  }
+
+  @Test
+  public void testRemove() {
+    final ActionIndex<Integer> index = ActionIndex.sorted();
+    index.add(1, a);
+    index.add(1, b);
+    index.remove(1, a);
+    // Removing something that isn't there is harmless
+    index.remove(1, c);
+    index.remove(2, a);
+    Assert.assertEquals(set(b), index.range(Optional.empty(), Optional.empty()));
+  }
+}
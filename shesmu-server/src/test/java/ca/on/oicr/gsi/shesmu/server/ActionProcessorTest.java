@@ -0,0 +1,106 @@
+package ca.on.oicr.gsi.shesmu.server;
+
+import ca.on.oicr.gsi.shesmu.plugin.action.ActionServices;
+import ca.on.oicr.gsi.shesmu.plugin.action.ActionState;
+import io.prometheus.client.CollectorRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ActionProcessorTest {
+  /** An action that waits while being performed until the test lets it finish */
+  private static final class BlockingAction extends TestAction {
+    private volatile String id;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private BlockingAction(String name) {
+      super(name, 0);
+    }
+
+    @Override
+    public void accepted(String actionId) {
+      id = actionId;
+    }
+
+    @Override
+    public ActionState perform(ActionServices services) {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return ActionState.SUCCEEDED;
+    }
+
+    @Override
+    public Stream<String> tags() {
+      return Stream.of("from-action");
+    }
+  }
+
+  private static double gauge(String name, String[] labelNames, String... labelValues) {
+    final Double value =
+        CollectorRegistry.defaultRegistry.getSampleValue(name, labelNames, labelValues);
+    return value == null ? 0 : value;
+  }
+
+  private static double stateCount(ActionState state) {
+    return gauge("shesmu_action_state_count", new String[] {"state", "type"}, state.name(), "test");
+  }
+
+  private Path directory;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("shesmu-action-processor");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testPurgeWhilePerforming() throws Exception {
+    final ActionStateStore store = ActionStateStore.create(directory);
+    final ActionProcessor processor = new ActionProcessor("http://localhost", null, null, store);
+    final BlockingAction action = new BlockingAction("purged");
+    processor.accept(action, "test.shesmu", 1, 1, "hash", new String[] {"from-olive"});
+    Assert.assertEquals(1, stateCount(ActionState.UNKNOWN), 0);
+
+    processor.update();
+    Assert.assertTrue(action.started.await(10, TimeUnit.SECONDS));
+    Assert.assertEquals(1, processor.purge());
+    action.release.countDown();
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (gauge("shesmu_action_currently_running", new String[0]) > 0) {
+      Assert.assertTrue("Action did not finish", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+
+    // The finished perform must not put the purged action back
+    Assert.assertEquals(0, processor.size());
+    Assert.assertEquals(0, stateCount(ActionState.UNKNOWN), 0);
+    Assert.assertEquals(0, stateCount(ActionState.SUCCEEDED), 0);
+    store.flush();
+    Assert.assertFalse(ActionStateStore.create(directory).load().containsKey(action.id));
+
+    // If an olive produces it again, it starts fresh
+    processor.accept(action, "test.shesmu", 1, 1, "hash", new String[] {"from-olive"});
+    Assert.assertEquals(1, processor.size());
+    Assert.assertEquals(1, stateCount(ActionState.UNKNOWN), 0);
+    Assert.assertEquals(0, stateCount(ActionState.SUCCEEDED), 0);
+  }
+}
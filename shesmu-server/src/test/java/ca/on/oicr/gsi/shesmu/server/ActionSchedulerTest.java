@@ -0,0 +1,89 @@
+package ca.on.oicr.gsi.shesmu.server;
+
+import ca.on.oicr.gsi.shesmu.plugin.action.Action;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ActionSchedulerTest {
+  private static List<String> names(List<Entry<Action, String>> entries) {
+    return entries.stream().map(Entry::getValue).collect(Collectors.toList());
+  }
+
+  private static Instant t(long seconds) {
+    return Instant.ofEpochSecond(seconds);
+  }
+
+  @Test
+  public void testNotDue() {
+    final ActionScheduler<String> scheduler = new ActionScheduler<>();
+    scheduler.schedule(new TestAction("a", 0), "a", t(100));
+    Assert.assertEquals(Collections.emptyList(), scheduler.take(t(99), 10));
+    Assert.assertEquals(Arrays.asList("a"), names(scheduler.take(t(100), 10)));
+    // Taking an action removes it
+    Assert.assertEquals(Collections.emptyList(), scheduler.take(t(200), 10));
+  }
+
+  @Test
+  public void testOrdering() {
+    final ActionScheduler<String> scheduler = new ActionScheduler<>();
+    scheduler.schedule(new TestAction("late-low", 0), "late-low", t(30));
+    scheduler.schedule(new TestAction("early-low", 0), "early-low", t(10));
+    scheduler.schedule(new TestAction("late-high", -5), "late-high", t(20));
+    scheduler.schedule(new TestAction("early-high", -5), "early-high", t(5));
+    scheduler.schedule(new TestAction("future", -10), "future", t(1000));
+    // Lower priority numbers go first; within a priority, the action due first goes first
+    Assert.assertEquals(
+        Arrays.asList("early-high", "late-high", "early-low"), names(scheduler.take(t(100), 3)));
+    Assert.assertEquals(Arrays.asList("late-low"), names(scheduler.take(t(100), 3)));
+  }
+
+  @Test
+  public void testReadyWaitsForNextRound() {
+    final ActionScheduler<String> scheduler = new ActionScheduler<>();
+    scheduler.schedule(new TestAction("low", 10), "low", t(10));
+    Assert.assertEquals(Collections.emptyList(), scheduler.take(t(20), 0));
+    // An action that becomes due later but has a higher priority jumps ahead of one that was
+    // already eligible
+    scheduler.schedule(new TestAction("high", 0), "high", t(30));
+    Assert.assertEquals(Arrays.asList("high"), names(scheduler.take(t(40), 1)));
+    Assert.assertEquals(Arrays.asList("low"), names(scheduler.take(t(40), 1)));
+  }
+
+  @Test
+  public void testRemove() {
+    final ActionScheduler<String> scheduler = new ActionScheduler<>();
+    final TestAction waiting = new TestAction("waiting", 0);
+    final TestAction ready = new TestAction("ready", 0);
+    scheduler.schedule(waiting, "waiting", t(100));
+    scheduler.schedule(ready, "ready", t(10));
+    Assert.assertEquals(Collections.emptyList(), scheduler.take(t(20), 0));
+    scheduler.remove(waiting);
+    scheduler.remove(ready);
+    Assert.assertEquals(Collections.emptyList(), scheduler.take(t(200), 10));
+  }
+
+  @Test
+  public void testReplaced() {
+    final ActionScheduler<String> scheduler = new ActionScheduler<>();
+    final TestAction action = new TestAction("a", 0);
+    scheduler.schedule(action, "first", t(10));
+    scheduler.schedule(action, "second", t(50));
+    // The first ticket is due, but it has been replaced, so nothing is taken
+    Assert.assertEquals(Collections.emptyList(), scheduler.take(t(20), 10));
+    Assert.assertEquals(Arrays.asList("second"), names(scheduler.take(t(50), 10)));
+    Assert.assertEquals(Collections.emptyList(), scheduler.take(t(100), 10));
+
+    // Replacing a ticket that is already eligible also discards the old one
+    scheduler.schedule(action, "third", t(60));
+    Assert.assertEquals(Collections.emptyList(), scheduler.take(t(70), 0));
+    scheduler.schedule(action, "fourth", t(65));
+    Assert.assertEquals(Arrays.asList("fourth"), names(scheduler.take(t(70), 10)));
+    Assert.assertEquals(Collections.emptyList(), scheduler.take(t(100), 10));
+  }
+}
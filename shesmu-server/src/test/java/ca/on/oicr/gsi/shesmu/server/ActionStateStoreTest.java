@@ -0,0 +1,164 @@
+package ca.on.oicr.gsi.shesmu.server;
+
+import ca.on.oicr.gsi.shesmu.plugin.action.ActionState;
+import ca.on.oicr.gsi.shesmu.server.ActionStateStore.Record;
+import ca.on.oicr.gsi.shesmu.server.ActionStateStore.SavedState;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ActionStateStoreTest {
+  private static final String FIRST = "shesmu:" + repeat("01");
+  private static final String JOURNAL = "actions.journal";
+  private static final int RECORD_SIZE = 41;
+  private static final String SECOND = "shesmu:" + repeat("02");
+  private static final String THIRD = "shesmu:" + repeat("03");
+
+  private static String repeat(String hex) {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      builder.append(hex);
+    }
+    return builder.toString();
+  }
+
+  private Path directory;
+
+  private void assertState(
+      Map<String, SavedState> states, String id, ActionState state, long checked) {
+    final SavedState saved = states.get(id);
+    Assert.assertNotNull("Missing state for " + id, saved);
+    Assert.assertEquals(state, saved.state());
+    Assert.assertEquals(Instant.ofEpochMilli(checked), saved.lastChecked());
+    Assert.assertEquals(Instant.ofEpochMilli(checked + 1), saved.lastStateTransition());
+  }
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("shesmu-action-state");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  private ActionStateStore populate() {
+    final ActionStateStore store = ActionStateStore.create(directory);
+    Assert.assertTrue(store.load().isEmpty());
+    write(store, FIRST, ActionState.SUCCEEDED, 1000);
+    write(store, SECOND, ActionState.FAILED, 2000);
+    write(store, THIRD, ActionState.WAITING, 3000);
+    store.flush();
+    return store;
+  }
+
+  @Test
+  public void testCorruptRecord() throws IOException {
+    populate();
+    final Path journal = directory.resolve(JOURNAL);
+    try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+      // Flip one byte in the middle of the second record
+      channel.write(
+          ByteBuffer.wrap(new byte[] {(byte) 0xFF}),
+          Files.size(journal) - 2 * RECORD_SIZE + RECORD_SIZE / 2);
+    }
+    final Map<String, SavedState> states = ActionStateStore.create(directory).load();
+    Assert.assertEquals(1, states.size());
+    assertState(states, FIRST, ActionState.SUCCEEDED, 1000);
+  }
+
+  @Test
+  public void testDelete() {
+    final ActionStateStore store = populate();
+    store.delete(SECOND);
+    store.flush();
+    final Map<String, SavedState> states = ActionStateStore.create(directory).load();
+    Assert.assertEquals(2, states.size());
+    Assert.assertFalse(states.containsKey(SECOND));
+  }
+
+  @Test
+  public void testIgnoresInvalidIdentifiers() {
+    final ActionStateStore store = ActionStateStore.create(directory);
+    store.load();
+    write(store, "not-a-shesmu-id", ActionState.SUCCEEDED, 1000);
+    store.flush();
+    Assert.assertTrue(ActionStateStore.create(directory).load().isEmpty());
+  }
+
+  @Test
+  public void testJournal() {
+    populate();
+    final Map<String, SavedState> states = ActionStateStore.create(directory).load();
+    Assert.assertEquals(3, states.size());
+    assertState(states, FIRST, ActionState.SUCCEEDED, 1000);
+    assertState(states, SECOND, ActionState.FAILED, 2000);
+    assertState(states, THIRD, ActionState.WAITING, 3000);
+  }
+
+  @Test
+  public void testLaterRecordReplaces() {
+    final ActionStateStore store = populate();
+    write(store, FIRST, ActionState.QUEUED, 4000);
+    store.flush();
+    final Map<String, SavedState> states = ActionStateStore.create(directory).load();
+    assertState(states, FIRST, ActionState.QUEUED, 4000);
+  }
+
+  @Test
+  public void testSnapshot() {
+    final ActionStateStore store = populate();
+    store.snapshot(
+        Stream.of(
+            new Record(FIRST, new SavedState(ActionState.INFLIGHT, t(5000), t(5001))),
+            new Record(THIRD, new SavedState(ActionState.SUCCEEDED, t(6000), t(6001)))));
+    // This goes into the new journal and must be applied on top of the snapshot
+    write(store, SECOND, ActionState.HALP, 7000);
+    store.flush();
+    final Map<String, SavedState> states = ActionStateStore.create(directory).load();
+    Assert.assertEquals(3, states.size());
+    assertState(states, FIRST, ActionState.INFLIGHT, 5000);
+    assertState(states, SECOND, ActionState.HALP, 7000);
+    assertState(states, THIRD, ActionState.SUCCEEDED, 6000);
+    Assert.assertFalse(Files.exists(directory.resolve(JOURNAL + ".old")));
+  }
+
+  @Test
+  public void testTruncatedTail() throws IOException {
+    populate();
+    final Path journal = directory.resolve(JOURNAL);
+    try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+      channel.truncate(Files.size(journal) - RECORD_SIZE / 2);
+    }
+    final Map<String, SavedState> states = ActionStateStore.create(directory).load();
+    Assert.assertEquals(2, states.size());
+    assertState(states, FIRST, ActionState.SUCCEEDED, 1000);
+    assertState(states, SECOND, ActionState.FAILED, 2000);
+
+    // Recovery should have written everything readable to a clean snapshot, so a second restart
+    // sees the same thing
+    Assert.assertEquals(2, ActionStateStore.create(directory).load().size());
+  }
+
+  private static Instant t(long millis) {
+    return Instant.ofEpochMilli(millis);
+  }
+
+  private static void write(ActionStateStore store, String id, ActionState state, long checked) {
+    store.write(id, state, t(checked), t(checked + 1));
+  }
+}
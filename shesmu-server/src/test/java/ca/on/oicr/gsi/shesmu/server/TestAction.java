@@ -0,0 +1,66 @@
+package ca.on.oicr.gsi.shesmu.server;
+
+import ca.on.oicr.gsi.shesmu.plugin.action.Action;
+import ca.on.oicr.gsi.shesmu.plugin.action.ActionServices;
+import ca.on.oicr.gsi.shesmu.plugin.action.ActionState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/** An action for tests that is only equal to itself and succeeds when performed */
+class TestAction extends Action {
+  private final String name;
+  private final int priority;
+
+  TestAction(String name, int priority) {
+    super("test");
+    this.name = name;
+    this.priority = priority;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return this == other;
+  }
+
+  @Override
+  public void generateUUID(Consumer<byte[]> digest) {
+    digest.accept(name.getBytes());
+  }
+
+  @Override
+  public int hashCode() {
+    return name.hashCode();
+  }
+
+  @Override
+  public ActionState perform(ActionServices services) {
+    return ActionState.SUCCEEDED;
+  }
+
+  @Override
+  public int priority() {
+    return priority;
+  }
+
+  @Override
+  public long retryMinutes() {
+    return 10;
+  }
+
+  @Override
+  public boolean search(Pattern query) {
+    return false;
+  }
+
+  @Override
+  public ObjectNode toJson(ObjectMapper mapper) {
+    return mapper.createObjectNode();
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}